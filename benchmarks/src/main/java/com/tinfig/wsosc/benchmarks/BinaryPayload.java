@@ -0,0 +1,87 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Payload} in the binary face protocol: its key dictionary and one values frame, built
+ * the same way as the JS helper in html/index.html.
+ */
+public class BinaryPayload {
+    private static final String[] GROUPS = {"emotions", "expressions", "measurements", "featurePoints"};
+
+    public final byte[] dictionary;
+    public final byte[] values;
+
+    public BinaryPayload(Payload payload) {
+        JsonNode event;
+        try {
+            event = new ObjectMapper().readTree(payload.json());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        JsonNode data = event.get("data");
+
+        List<String> keys = new ArrayList<>();
+        List<Map<String, Float>> faces = new ArrayList<>();
+        for (JsonNode face : data.get("faces")) {
+            Map<String, Float> flat = new LinkedHashMap<>();
+            for (String group : GROUPS) {
+                flatten("/" + group, face.get(group), flat);
+            }
+            for (String key : flat.keySet()) {
+                if (!keys.contains(key)) {
+                    keys.add(key);
+                }
+            }
+            faces.add(flat);
+        }
+
+        ByteBuffer dict = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+        dict.put((byte) 1).put((byte) 1).putShort((short) keys.size());
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            dict.putShort((short) bytes.length).put(bytes);
+        }
+        dictionary = new byte[dict.position()];
+        dict.flip();
+        dict.get(dictionary);
+
+        ByteBuffer buf = ByteBuffer.allocate(12 + faces.size() * (4 + 4 * keys.size())).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put((byte) 2).put((byte) faces.size()).putShort((short) 0).putDouble(data.get("timestamp").asDouble());
+        int id = 0;
+        for (Map<String, Float> face : faces) {
+            buf.putInt(id++);
+            for (String key : keys) {
+                Float value = face.get(key);
+                buf.putFloat(value != null ? value : Float.NaN);
+            }
+        }
+        values = buf.array();
+    }
+
+    private static void flatten(String prefix, JsonNode node, Map<String, Float> out) {
+        if (node == null) {
+            return;
+        }
+        if (node.isNumber()) {
+            out.put(prefix, node.floatValue());
+        } else if (node.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> e = it.next();
+                flatten(prefix + "/" + e.getKey(), e.getValue(), out);
+            }
+        }
+    }
+}
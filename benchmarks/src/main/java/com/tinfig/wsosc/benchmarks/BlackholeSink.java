@@ -0,0 +1,37 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.tinfig.wsosc.OscAddress;
+import com.tinfig.wsosc.OscSink;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Consumes decoded values so the JIT can't drop the work that produced them.
+ */
+class BlackholeSink implements OscSink {
+    private final Blackhole blackhole;
+
+    BlackholeSink(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void beginFrame(long timetag) {
+        blackhole.consume(timetag);
+    }
+
+    @Override
+    public void floatValue(OscAddress address, float value) {
+        blackhole.consume(address);
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void stringValue(OscAddress address, String value) {
+        blackhole.consume(address);
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void endFrame() {
+    }
+}
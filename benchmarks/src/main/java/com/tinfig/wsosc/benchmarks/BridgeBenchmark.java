@@ -0,0 +1,149 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.tinfig.wsosc.Config;
+import com.tinfig.wsosc.FaceMessageHandler;
+import com.tinfig.wsosc.Metrics;
+import com.tinfig.wsosc.OscAddressSpace;
+import com.tinfig.wsosc.OscEgress;
+import com.tinfig.wsosc.OscTarget;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole bridge path for one WebSocket frame: {@link FaceMessageHandler} driven through an
+ * embedded Netty channel, sending to a {@link UdpSink} on the loopback interface.
+ * <p>
+ * Each operation waits until the sink has received every datagram of its frame, so the time
+ * covers decoding, encoding, the target's sender thread and the socket, not just the enqueue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BridgeBenchmark {
+    // An operation gives up on datagrams that haven't arrived by then, in case one was lost
+    private static final long RECEIVE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long SETTLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param
+    public Payload payload;
+
+    @Param
+    public Config.Decoder decoder;
+
+    @Param({"false", "true"})
+    public boolean allFaces;
+
+    @Param({"false", "true"})
+    public boolean bundle;
+
+    private UdpSink sink;
+    private OscEgress egress;
+    private EmbeddedChannel channel;
+    private ByteBuf frameContent;
+    private long packetsPerFrame;
+
+    /**
+     * Reported alongside the timings.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Delivery {
+        /**
+         * Datagrams the sink received.
+         */
+        public long packets;
+        /**
+         * Frames whose datagrams didn't all arrive within the timeout.
+         */
+        public long timeouts;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        sink = new UdpSink();
+
+        Config config = new Config();
+        config.decoder = decoder;
+        config.allFaces = allFaces;
+        OscTarget target = new OscTarget("127.0.0.1", sink.getPort(), bundle);
+
+        OscAddressSpace addressSpace = new OscAddressSpace();
+        Metrics metrics = new Metrics();
+        egress = new OscEgress(Collections.singletonList(target), addressSpace, config.egressQueueSize, metrics, msg -> { });
+        // There's no WebSocket handshake to start the senders
+        egress.retain();
+        channel = new EmbeddedChannel(new FaceMessageHandler(config, egress, addressSpace, egress::newSession, metrics));
+
+        // The handler releases each frame, so hand it a buffer that ignores releases
+        frameContent = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(payload.json()));
+
+        // Every frame is the same, so the first one shows how many datagrams to wait for
+        channel.writeInbound(new TextWebSocketFrame(frameContent));
+        packetsPerFrame = settle();
+    }
+
+    /**
+     * Waits until the sink has received nothing new for a while.
+     *
+     * @return how many datagrams it received meanwhile
+     */
+    private long settle() {
+        long start = sink.getPackets();
+        long last = start;
+        long quietSince = System.nanoTime();
+        while (System.nanoTime() - quietSince < SETTLE_NANOS) {
+            long packets = sink.getPackets();
+            if (packets != last) {
+                last = packets;
+                quietSince = System.nanoTime();
+            }
+            Thread.yield();
+        }
+        return last - start;
+    }
+
+    @Benchmark
+    public void frame(Delivery delivery) {
+        long before = sink.getPackets();
+        long expected = before + packetsPerFrame;
+        channel.writeInbound(new TextWebSocketFrame(frameContent));
+        long deadline = System.nanoTime() + RECEIVE_TIMEOUT_NANOS;
+        long received;
+        while ((received = sink.getPackets()) < expected) {
+            if (System.nanoTime() - deadline > 0) {
+                delivery.timeouts++;
+                break;
+            }
+        }
+        delivery.packets += received - before;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.finishAndReleaseAll();
+        egress.close();
+        sink.close();
+    }
+}
@@ -0,0 +1,101 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tinfig.wsosc.BinaryFaceDecoder;
+import com.tinfig.wsosc.FaceEventDecoder;
+import com.tinfig.wsosc.FaceFrame;
+import com.tinfig.wsosc.FaceMessage;
+import com.tinfig.wsosc.FrameClock;
+import com.tinfig.wsosc.JsonFlattener;
+import com.tinfig.wsosc.MessageMapping;
+import com.tinfig.wsosc.OscAddressSpace;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a face event: Jackson binding to {@link FaceMessage} against the streaming decoder,
+ * against the generic {@link JsonFlattener} and against the binary protocol's packed floats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param
+    public Payload payload;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] json;
+    private FaceEventDecoder decoder;
+    private FaceFrame frame;
+    private BlackholeSink sink;
+    private JsonFlattener flattener;
+    private BinaryFaceDecoder binaryDecoder;
+    private ByteBuf binaryValues;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        json = payload.json();
+        decoder = new FaceEventDecoder(mapper.getFactory(), new OscAddressSpace(), new FrameClock());
+        frame = new FaceFrame();
+        sink = new BlackholeSink(blackhole);
+        flattener = new JsonFlattener(mapper.getFactory(), new OscAddressSpace(), new FrameClock(),
+                Collections.singletonList(new MessageMapping(FaceEventDecoder.FACE_EVENT, "/", "timestamp")));
+
+        OscAddressSpace addressSpace = new OscAddressSpace();
+        BinaryPayload binary = new BinaryPayload(payload);
+        binaryDecoder = new BinaryFaceDecoder(addressSpace, new FrameClock());
+        binaryDecoder.decode(Unpooled.wrappedBuffer(binary.dictionary), sink);
+        binaryValues = Unpooled.wrappedBuffer(binary.values);
+    }
+
+    @Benchmark
+    public FaceMessage bind() throws IOException {
+        return mapper.readValue(json, FaceMessage.class);
+    }
+
+    @Benchmark
+    public String streamFirstFace() throws IOException {
+        return decoder.decode(json, 0, json.length, sink);
+    }
+
+    @Benchmark
+    public FaceFrame streamAllFaces() throws IOException {
+        decoder.decode(json, 0, json.length, frame);
+        return frame;
+    }
+
+    @Benchmark
+    public boolean flattenGeneric() throws IOException {
+        return flattener.decode(json, 0, json.length, sink);
+    }
+
+    @Benchmark
+    public boolean binaryFirstFace() throws IOException {
+        return binaryDecoder.decode(binaryValues, sink);
+    }
+
+    @Benchmark
+    public FaceFrame binaryAllFaces() throws IOException {
+        binaryDecoder.decode(binaryValues, frame);
+        return frame;
+    }
+}
@@ -0,0 +1,121 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.illposed.osc.OSCMessage;
+import com.tinfig.wsosc.FaceMessage;
+import com.tinfig.wsosc.OscAddress;
+import com.tinfig.wsosc.OscAddressSpace;
+import com.tinfig.wsosc.OscEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building OSC addresses and encoding messages for every value of an already-bound face event:
+ * the original per-value {@link OSCMessage} path against the interned {@link OscAddress} tree
+ * and {@link OscEncoder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param
+    public Payload payload;
+
+    private FaceMessage message;
+    private OscAddress emotions;
+    private OscAddress expressions;
+    private OscAddress appearance;
+    private OscAddress interocularDistance;
+    private OscAddress orientation;
+    private OscAddress featurePoints;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(OscEncoder.MAX_DATAGRAM_SIZE);
+
+    @Setup
+    public void setup() throws IOException {
+        message = new ObjectMapper().readValue(payload.json(), FaceMessage.class);
+        OscAddressSpace addressSpace = new OscAddressSpace();
+        emotions = addressSpace.resolve("/emotions");
+        expressions = addressSpace.resolve("/expressions");
+        appearance = addressSpace.resolve("/appearance");
+        interocularDistance = addressSpace.resolve("/measurements/interocularDistance");
+        orientation = addressSpace.resolve("/measurements/orientation");
+        featurePoints = addressSpace.resolve("/featurePoints");
+    }
+
+    @Benchmark
+    public void oscMessage(Blackhole blackhole) {
+        for (FaceMessage.Face face : message.data.faces) {
+            legacyFloats(blackhole, "/emotions/", face.emotions);
+            legacyFloats(blackhole, "/expressions/", face.expressions);
+            for (Map.Entry<String, String> e : face.appearance.entrySet()) {
+                legacySend(blackhole, "/appearance/" + e.getKey(), e.getValue());
+            }
+            legacySend(blackhole, "/measurements/interocularDistance", face.measurements.interocularDistance);
+            legacyFloats(blackhole, "/measurements/orientation/", face.measurements.orientation);
+            if (face.featurePoints != null) {
+                for (Map.Entry<String, Map<String, Float>> e : face.featurePoints.entrySet()) {
+                    legacyFloats(blackhole, "/featurePoints/" + e.getKey() + "/", e.getValue());
+                }
+            }
+        }
+    }
+
+    private static void legacyFloats(Blackhole blackhole, String prefix, Map<String, Float> values) {
+        for (Map.Entry<String, Float> e : values.entrySet()) {
+            legacySend(blackhole, prefix + e.getKey(), e.getValue());
+        }
+    }
+
+    private static void legacySend(Blackhole blackhole, String address, Object value) {
+        blackhole.consume(new OSCMessage(address, Collections.singletonList(value)).getByteArray());
+    }
+
+    @Benchmark
+    public void oscEncoder(Blackhole blackhole) {
+        for (FaceMessage.Face face : message.data.faces) {
+            encodeFloats(blackhole, emotions, face.emotions);
+            encodeFloats(blackhole, expressions, face.expressions);
+            for (Map.Entry<String, String> e : face.appearance.entrySet()) {
+                buf.clear();
+                OscEncoder.writeString(buf, appearance.child(e.getKey()), e.getValue());
+                blackhole.consume(buf.position());
+            }
+            buf.clear();
+            OscEncoder.writeFloat(buf, interocularDistance, face.measurements.interocularDistance);
+            blackhole.consume(buf.position());
+            encodeFloats(blackhole, orientation, face.measurements.orientation);
+            if (face.featurePoints != null) {
+                for (Map.Entry<String, Map<String, Float>> e : face.featurePoints.entrySet()) {
+                    encodeFloats(blackhole, featurePoints.child(e.getKey()), e.getValue());
+                }
+            }
+        }
+    }
+
+    private void encodeFloats(Blackhole blackhole, OscAddress parent, Map<String, Float> values) {
+        for (Map.Entry<String, Float> e : values.entrySet()) {
+            buf.clear();
+            OscEncoder.writeFloat(buf, parent.child(e.getKey()), e.getValue());
+            blackhole.consume(buf.position());
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tinfig.wsosc.BridgeThread;
+import com.tinfig.wsosc.Config;
+import com.tinfig.wsosc.Metrics;
+import com.tinfig.wsosc.OscTarget;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens many WebSocket clients against a bridge, each sending face events at a fixed rate, and
+ * measures how long each takes to come back out as OSC on a local UDP port.
+ * <p>
+ * Point one of the bridge's OSC targets at the sink port, or pass {@code --embedded} to run a
+ * bridge in this process with that target added.  Every frame carries an extra
+ * "/emotions/loadTag" value identifying it, so dead-band suppression and coalescing only thin
+ * out the other values.
+ * <pre>
+ * java -cp target/benchmarks.jar com.tinfig.wsosc.benchmarks.LoadGenerator \
+ *     [--url ws://127.0.0.1:5000/faces] [--osc-port 9000] [--clients 10] [--rate 30]
+ *     [--duration 30] [--payload ONE_FACE | --replay frames.jsonl] [--embedded [--config ws-osc.json]]
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final long DRAIN_MILLIS = 1000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private URI url = URI.create("ws://127.0.0.1:5000/faces");
+    private int oscPort = 9000;
+    private int clients = 10;
+    private double rate = 30;
+    private int durationSeconds = 30;
+    private Payload payload = Payload.ONE_FACE;
+    private File replay;
+    private boolean embedded;
+    private File config;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parseArgs(args);
+        generator.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url":
+                    url = URI.create(args[++i]);
+                    break;
+                case "--osc-port":
+                    oscPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--payload":
+                    payload = Payload.valueOf(args[++i]);
+                    break;
+                case "--replay":
+                    replay = new File(args[++i]);
+                    break;
+                case "--embedded":
+                    embedded = true;
+                    break;
+                case "--config":
+                    config = new File(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown argument " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        List<ObjectNode> frames = loadFrames();
+        BridgeThread bridge = embedded ? startBridge() : null;
+        EventLoopGroup group = new NioEventLoopGroup();
+        try (OscLatencySink sink = new OscLatencySink(oscPort, clients)) {
+            List<Channel> channels = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                channels.add(connect(group, new Client(i, frames, sink)));
+            }
+            System.out.printf(Locale.ROOT, "%d clients at %.1f fps to %s, OSC sink on UDP %d%n", clients, rate, url, oscPort);
+            System.out.println("  sent/s  recv/s  pkts/s   p50 ms   p99 ms  p999 ms  loss");
+
+            long totalSent = 0;
+            long totalReceived = 0;
+            List<long[]> all = new ArrayList<>();
+            for (int second = 0; second < durationSeconds; second++) {
+                Thread.sleep(1000);
+                long intervalSent = sent.sumThenReset();
+                OscLatencySink.Interval interval = sink.takeInterval();
+                totalSent += intervalSent;
+                totalReceived += interval.received;
+                all.add(interval.latencies);
+                report(intervalSent, interval, totalSent, totalReceived);
+            }
+
+            channels.forEach(Channel::close);
+            Thread.sleep(DRAIN_MILLIS);
+            OscLatencySink.Interval tail = sink.takeInterval();
+            totalSent += sent.sumThenReset();
+            totalReceived += tail.received;
+            all.add(tail.latencies);
+
+            long[] latencies = all.stream().flatMapToLong(Arrays::stream).toArray();
+            OscLatencySink.Interval total = new OscLatencySink.Interval(latencies, totalReceived, 0, 0);
+            System.out.printf(Locale.ROOT, "total: sent %d, received %d, loss %.2f%%, skipped (client not writable) %d%n",
+                    totalSent, totalReceived, lossPercent(totalSent, totalReceived), skipped.sum());
+            System.out.printf(Locale.ROOT, "latency: p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms%n",
+                    millis(total.percentileNanos(0.5)), millis(total.percentileNanos(0.99)),
+                    millis(total.percentileNanos(0.999)), millis(total.percentileNanos(1.0)));
+        } finally {
+            group.shutdownGracefully();
+            if (bridge != null) {
+                bridge.shutdownBridge();
+            }
+        }
+    }
+
+    private void report(long intervalSent, OscLatencySink.Interval interval, long totalSent, long totalReceived) {
+        System.out.printf(Locale.ROOT, "%8d%8d%8d%9.3f%9.3f%9.3f%6.2f%%%n",
+                intervalSent, interval.received, interval.packets,
+                millis(interval.percentileNanos(0.5)), millis(interval.percentileNanos(0.99)),
+                millis(interval.percentileNanos(0.999)), lossPercent(totalSent, totalReceived));
+    }
+
+    private static double lossPercent(long sent, long received) {
+        return sent == 0 ? 0 : Math.max(0, 100.0 * (sent - received) / sent);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Synthetic frames from {@link Payload}, or recorded ones, one faceEvent JSON object per line.
+     */
+    private List<ObjectNode> loadFrames() throws IOException {
+        List<ObjectNode> frames = new ArrayList<>();
+        if (replay != null) {
+            for (String line : Files.readAllLines(replay.toPath())) {
+                if (!line.trim().isEmpty()) {
+                    frames.add(withTag((ObjectNode) mapper.readTree(line)));
+                }
+            }
+        } else {
+            frames.add(withTag((ObjectNode) mapper.readTree(payload.json())));
+        }
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("no frames in " + replay);
+        }
+        return frames;
+    }
+
+    /**
+     * Makes sure the first face has an emotions object to carry the tag, first in the object so
+     * it's decoded before anything else in the frame.
+     */
+    private ObjectNode withTag(ObjectNode frame) {
+        JsonNode dataNode = frame.get("data");
+        ObjectNode data = dataNode instanceof ObjectNode ? (ObjectNode) dataNode : frame.putObject("data");
+        JsonNode faces = data.get("faces");
+        if (!(faces instanceof ArrayNode) || faces.size() == 0) {
+            ArrayNode array = data.putArray("faces");
+            array.addObject();
+            faces = array;
+        }
+        ObjectNode face = (ObjectNode) faces.get(0);
+        ObjectNode emotions = mapper.createObjectNode();
+        emotions.put(OscLatencySink.TAG_KEY, 0f);
+        JsonNode existing = face.get("emotions");
+        if (existing instanceof ObjectNode) {
+            emotions.setAll((ObjectNode) existing);
+        }
+        face.set("emotions", emotions);
+        return frame;
+    }
+
+    private BridgeThread startBridge() throws IOException {
+        Config bridgeConfig = config != null ? mapper.readValue(config, Config.class) : new Config();
+        bridgeConfig.websocketPort = url.getPort();
+        bridgeConfig.websocketPath = url.getPath();
+        bridgeConfig.oscTargets.add(new OscTarget("127.0.0.1", oscPort));
+        BridgeThread bridge = new BridgeThread(bridgeConfig, new Metrics(), () -> { }, msg -> { });
+        bridge.start();
+        return bridge;
+    }
+
+    private Channel connect(EventLoopGroup group, Client client) throws InterruptedException {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .remoteAddress(new InetSocketAddress(url.getHost(), url.getPort()))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                new HttpClientCodec(),
+                                new HttpObjectAggregator(8192),
+                                new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory.newHandshaker(
+                                        url, WebSocketVersion.V13, null, false, new DefaultHttpHeaders())),
+                                client);
+                    }
+                });
+
+        // An embedded bridge may still be binding its port
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return bootstrap.connect().sync().channel();
+            } catch (Exception e) {
+                if (!embedded || attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * One simulated browser: once the WebSocket handshake completes, sends a frame every
+     * 1/rate seconds from its event loop, starting at a random offset so clients don't send in
+     * lockstep.
+     */
+    private class Client extends ChannelInboundHandlerAdapter {
+        private final int index;
+        private final List<ObjectNode> frames;
+        private final OscLatencySink sink;
+        private int sequence;
+        private int next;
+
+        Client(int index, List<ObjectNode> frames, OscLatencySink sink) {
+            this.index = index;
+            this.frames = frames;
+            this.sink = sink;
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                long periodNanos = (long) (1e9 / rate);
+                ctx.executor().scheduleAtFixedRate(() -> send(ctx), ThreadLocalRandom.current().nextLong(periodNanos),
+                        periodNanos, TimeUnit.NANOSECONDS);
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        private void send(ChannelHandlerContext ctx) {
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+            if (!ctx.channel().isWritable()) {
+                skipped.increment();
+                return;
+            }
+
+            ObjectNode frame = frames.get(next);
+            next = (next + 1) % frames.size();
+            // Frames are shared between clients, so tag a private copy
+            ObjectNode copy = frame.deepCopy();
+            ObjectNode data = (ObjectNode) copy.get("data");
+            data.put("timestamp", System.currentTimeMillis());
+            ((ObjectNode) data.get("faces").get(0).get("emotions")).put(OscLatencySink.TAG_KEY, OscLatencySink.tag(index, sequence));
+
+            byte[] json;
+            try {
+                json = mapper.writeValueAsBytes(copy);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            sink.sent(index, sequence, System.nanoTime());
+            sequence++;
+            sent.increment();
+            ctx.writeAndFlush(new TextWebSocketFrame(Unpooled.wrappedBuffer(json)));
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            // The bridge never sends anything back
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
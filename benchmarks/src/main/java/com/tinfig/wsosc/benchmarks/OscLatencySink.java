@@ -0,0 +1,202 @@
+package com.tinfig.wsosc.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Receives the bridge's OSC output on a local UDP port and matches each "/emotions/loadTag"
+ * value back to the time the {@link LoadGenerator} sent it.
+ * <p>
+ * A tag is one float carrying the client number in its high bits and a wrapping per-client
+ * sequence number in its low bits, so it survives the bridge exactly and fits in one value.
+ * If receiving fails, {@link #takeInterval()} and {@link #close()} throw, so the run fails too.
+ */
+public class OscLatencySink implements AutoCloseable {
+    static final String TAG_KEY = "loadTag";
+    static final int SEQUENCE_BITS = 14;
+    static final int MAX_CLIENTS = 1 << (24 - SEQUENCE_BITS);
+    private static final int SEQUENCES = 1 << SEQUENCE_BITS;
+
+    private static final byte[] TAG_SUFFIX = ("/emotions/" + TAG_KEY).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BUNDLE = "#bundle".getBytes(StandardCharsets.US_ASCII);
+
+    private final DatagramChannel channel;
+    private final Thread thread;
+    // Send time in nanos of each outstanding tag, zero once matched
+    private final AtomicLongArray sentNanos;
+    private volatile IOException failure;
+
+    private long[] latencies = new long[4096];
+    private int latencyCount;
+    private long received;
+    private long duplicates;
+    private long packets;
+
+    public OscLatencySink(int port, int clients) throws IOException {
+        if (clients > MAX_CLIENTS) {
+            throw new IllegalArgumentException("at most " + MAX_CLIENTS + " clients");
+        }
+        sentNanos = new AtomicLongArray(clients * SEQUENCES);
+        channel = DatagramChannel.open();
+        channel.setOption(java.net.StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        thread = new Thread(this::receive, "osc-latency-sink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static float tag(int client, int sequence) {
+        return (client << SEQUENCE_BITS) | (sequence & (SEQUENCES - 1));
+    }
+
+    /**
+     * Records that a tag is about to be sent.
+     */
+    void sent(int client, int sequence, long nanos) {
+        sentNanos.set((client << SEQUENCE_BITS) | (sequence & (SEQUENCES - 1)), nanos);
+    }
+
+    /**
+     * Returns the latencies and counts since the last call, and starts a new interval.
+     */
+    Interval takeInterval() {
+        if (failure != null) {
+            throw new IllegalStateException("the OSC latency sink stopped receiving", failure);
+        }
+        long[] taken;
+        long takenReceived;
+        long takenDuplicates;
+        long takenPackets;
+        synchronized (this) {
+            taken = Arrays.copyOf(latencies, latencyCount);
+            takenReceived = received;
+            takenDuplicates = duplicates;
+            takenPackets = packets;
+            latencyCount = 0;
+            received = 0;
+            duplicates = 0;
+            packets = 0;
+        }
+        return new Interval(taken, takenReceived, takenDuplicates, takenPackets);
+    }
+
+    private void receive() {
+        ByteBuffer buf = ByteBuffer.allocate(65536);
+        try {
+            while (true) {
+                buf.clear();
+                channel.receive(buf);
+                long now = System.nanoTime();
+                buf.flip();
+                synchronized (this) {
+                    packets++;
+                    packet(buf, buf.position(), buf.limit(), now);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // closed
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void packet(ByteBuffer buf, int start, int end, long now) {
+        if (startsWith(buf, start, end, BUNDLE)) {
+            // "#bundle\0" and the timetag, then size-prefixed elements
+            int pos = start + 16;
+            while (pos + 4 <= end) {
+                int size = buf.getInt(pos);
+                pos += 4;
+                if (size < 0 || pos + size > end) {
+                    return;
+                }
+                packet(buf, pos, pos + size, now);
+                pos += size;
+            }
+        } else {
+            message(buf, start, end, now);
+        }
+    }
+
+    private void message(ByteBuffer buf, int start, int end, long now) {
+        int addressEnd = start;
+        while (addressEnd < end && buf.get(addressEnd) != 0) {
+            addressEnd++;
+        }
+        if (addressEnd - start < TAG_SUFFIX.length || !startsWith(buf, addressEnd - TAG_SUFFIX.length, end, TAG_SUFFIX)) {
+            return;
+        }
+        int typeTags = pad(addressEnd + 1 - start) + start;
+        if (typeTags + 8 > end || buf.get(typeTags) != ',' || buf.get(typeTags + 1) != 'f') {
+            return;
+        }
+        int tag = (int) buf.getFloat(typeTags + 4);
+        if (tag < 0 || tag >= sentNanos.length()) {
+            return;
+        }
+        long sent = sentNanos.getAndSet(tag, 0);
+        if (sent == 0) {
+            duplicates++;
+            return;
+        }
+        received++;
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[latencyCount++] = now - sent;
+    }
+
+    private static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    static class Interval {
+        final long[] latencies;
+        final long received;
+        final long duplicates;
+        final long packets;
+
+        Interval(long[] latencies, long received, long duplicates, long packets) {
+            this.latencies = latencies;
+            this.received = received;
+            this.duplicates = duplicates;
+            this.packets = packets;
+            Arrays.sort(latencies);
+        }
+
+        long percentileNanos(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(i, latencies.length - 1))];
+        }
+    }
+}
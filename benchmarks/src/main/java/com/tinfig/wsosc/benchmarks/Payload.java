@@ -0,0 +1,102 @@
+package com.tinfig.wsosc.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Face events shaped like the ones the Affectiva JS SDK produces, generated from a fixed seed so every
+ * run sees the same bytes.
+ */
+public enum Payload {
+    /** One face with emotions, expressions, appearance and measurements. */
+    ONE_FACE(1, false),
+    /** Ten faces, each like {@link #ONE_FACE}. */
+    TEN_FACES(10, false),
+    /** One face with all 34 feature points. */
+    FEATURE_POINTS(1, true);
+
+    private final byte[] json;
+
+    Payload(int faces, boolean featurePoints) {
+        Random random = new Random(42);
+        List<Object> faceList = new ArrayList<>();
+        for (int i = 0; i < faces; i++) {
+            faceList.add(face(random, i, featurePoints));
+        }
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("timestamp", 12.345);
+        data.put("faces", faceList);
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "faceEvent");
+        event.put("data", data);
+        try {
+            json = new ObjectMapper().writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] json() {
+        return json;
+    }
+
+    private static Map<String, Object> face(Random random, int id, boolean featurePoints) {
+        Map<String, Object> face = new LinkedHashMap<>();
+        face.put("id", id);
+        face.put("emotions", scores(random, Names.EMOTIONS, 100f));
+        face.put("expressions", scores(random, Names.EXPRESSIONS, 100f));
+
+        Map<String, Object> appearance = new LinkedHashMap<>();
+        appearance.put("gender", "Female");
+        appearance.put("glasses", "No");
+        appearance.put("age", "25 - 34");
+        appearance.put("ethnicity", "Unknown");
+        face.put("appearance", appearance);
+
+        Map<String, Object> measurements = new LinkedHashMap<>();
+        measurements.put("interocularDistance", 60 + random.nextFloat() * 20);
+        measurements.put("orientation", scores(random, Names.ORIENTATION, 45f));
+        face.put("measurements", measurements);
+
+        if (featurePoints) {
+            Map<String, Object> points = new LinkedHashMap<>();
+            for (int i = 0; i < Names.FEATURE_POINT_COUNT; i++) {
+                Map<String, Object> point = new LinkedHashMap<>();
+                point.put("x", random.nextFloat() * 640);
+                point.put("y", random.nextFloat() * 480);
+                points.put(Integer.toString(i), point);
+            }
+            face.put("featurePoints", points);
+        }
+        return face;
+    }
+
+    private static Map<String, Object> scores(Random random, String[] names, float range) {
+        Map<String, Object> scores = new LinkedHashMap<>();
+        for (String name : names) {
+            scores.put(name, random.nextFloat() * range);
+        }
+        return scores;
+    }
+
+    // Enum constants are built before the enum's own static fields, so these live in a holder
+    private static final class Names {
+        static final String[] EMOTIONS = {
+                "joy", "sadness", "disgust", "contempt", "anger", "fear", "surprise", "valence", "engagement"
+        };
+        static final String[] EXPRESSIONS = {
+                "smile", "innerBrowRaise", "browRaise", "browFurrow", "noseWrinkle", "upperLipRaise",
+                "lipCornerDepressor", "chinRaise", "lipPucker", "lipPress", "lipSuck", "mouthOpen", "smirk",
+                "eyeClosure", "attention", "lidTighten", "jawDrop", "dimpler", "eyeWiden", "cheekRaise", "lipStretch"
+        };
+        static final String[] ORIENTATION = {"pitch", "yaw", "roll"};
+        static final int FEATURE_POINT_COUNT = 34;
+    }
+}
@@ -0,0 +1,74 @@
+package com.tinfig.wsosc.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local UDP port that receives and discards OSC datagrams on its own thread, counting them.
+ * If receiving fails, the counts and {@link #close()} throw, so the benchmark fails too.
+ */
+public class UdpSink implements AutoCloseable {
+    private final DatagramChannel channel;
+    private final Thread thread;
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile IOException failure;
+
+    public UdpSink() throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(java.net.StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = new Thread(this::receive, "udp-sink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) channel.socket().getLocalSocketAddress()).getPort();
+    }
+
+    public long getPackets() {
+        checkReceiving();
+        return packets.sum();
+    }
+
+    public long getBytes() {
+        checkReceiving();
+        return bytes.sum();
+    }
+
+    private void checkReceiving() {
+        if (failure != null) {
+            throw new IllegalStateException("the UDP sink stopped receiving", failure);
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(65536);
+        try {
+            while (true) {
+                buf.clear();
+                channel.receive(buf);
+                packets.increment();
+                bytes.add(buf.position());
+            }
+        } catch (ClosedChannelException e) {
+            // closed
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.tinfig.wsosc;
+
+/**
+ * How many new addresses one client may still add to an {@link OscAddressSpace}, so a client
+ * that keeps sending keys it never repeats can't use up the space for everyone else.
+ * <p>
+ * Not thread safe; every connection gets its own.
+ */
+public class AddressBudget {
+    private final int size;
+    private int remaining;
+
+    public AddressBudget(int size) {
+        this.size = size;
+        this.remaining = size;
+    }
+
+    void spend() {
+        if (remaining <= 0) {
+            throw new AddressSpaceFullException("a connection may add at most " + size + " OSC addresses");
+        }
+        remaining--;
+    }
+}
@@ -0,0 +1,15 @@
+package com.tinfig.wsosc;
+
+/**
+ * Thrown when interning a new address would take an {@link OscAddressSpace}, or a connection's
+ * {@link AddressBudget}, past its limit.
+ */
+public class AddressSpaceFullException extends IllegalStateException {
+    public AddressSpaceFullException(int limit) {
+        this("the OSC address space is full at " + limit + " addresses");
+    }
+
+    public AddressSpaceFullException(String message) {
+        super(message);
+    }
+}
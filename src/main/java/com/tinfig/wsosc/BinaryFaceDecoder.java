@@ -0,0 +1,153 @@
+package com.tinfig.wsosc;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the compact binary face protocol, read straight from the frame's buffer into an
+ * {@link OscSink}.  A session sends its key dictionary once, then every frame as packed floats.
+ * All numbers are little-endian, to match typed arrays in browsers.
+ * <pre>
+ * dictionary: u8 1, u8 version, u16 count, then count x (u16 length, UTF-8 face-relative OSC address)
+ * values:     u8 2, u8 faces, u16 0, f64 timestamp, then faces x (i32 face id, count x f32)
+ * </pre>
+ * A NaN value means the face doesn't have that key in this frame.  A new dictionary replaces the
+ * old one, so clients can add keys as they appear.  Values are always floats; string values
+ * such as appearance still need JSON.
+ */
+public class BinaryFaceDecoder {
+    static final int DICTIONARY = 1;
+    static final int VALUES = 2;
+    static final int VERSION = 1;
+    static final int MAX_KEYS = 4096;
+
+    private static final int VALUES_HEADER_SIZE = 12;
+
+    private final OscAddressSpace addressSpace;
+    private final FrameClock frameClock;
+    private final AddressBudget budget;
+    private OscAddress[] keys;
+
+    public BinaryFaceDecoder(OscAddressSpace addressSpace, FrameClock frameClock) {
+        this(addressSpace, frameClock, new AddressBudget(Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param budget pays for the new addresses in dictionaries; a dictionary that overspends
+     *               it is rejected whole and the previous one stays
+     */
+    public BinaryFaceDecoder(OscAddressSpace addressSpace, FrameClock frameClock, AddressBudget budget) {
+        this.addressSpace = addressSpace;
+        this.frameClock = frameClock;
+        this.budget = budget;
+    }
+
+    /**
+     * Sends the first face of a values frame to the sink.
+     *
+     * @return false for a dictionary, which has nothing to send
+     */
+    public boolean decode(ByteBuf buf, OscSink sink) throws IOException {
+        if (!readHeader(buf)) {
+            return false;
+        }
+        int start = buf.readerIndex();
+        sink.beginFrame(frameClock.toTimetag(buf.getDoubleLE(start + 4)));
+        if (buf.getUnsignedByte(start + 1) > 0) {
+            readFace(buf, start + VALUES_HEADER_SIZE + 4, sink);
+        }
+        sink.endFrame();
+        return true;
+    }
+
+    /**
+     * Records every face of a values frame.
+     *
+     * @return false for a dictionary, which has nothing to send
+     */
+    public boolean decode(ByteBuf buf, FaceFrame frame) throws IOException {
+        if (!readHeader(buf)) {
+            return false;
+        }
+        int start = buf.readerIndex();
+        int faces = buf.getUnsignedByte(start + 1);
+        frame.clear();
+        frame.timetag = frameClock.toTimetag(buf.getDoubleLE(start + 4));
+        int faceSize = 4 + 4 * keys.length;
+        for (int i = 0, pos = start + VALUES_HEADER_SIZE; i < faces; i++, pos += faceSize) {
+            readFace(buf, pos + 4, frame.addFace(buf.getIntLE(pos)));
+        }
+        return true;
+    }
+
+    /**
+     * Takes in a dictionary and returns false, or checks a values frame's size and returns true.
+     */
+    private boolean readHeader(ByteBuf buf) throws IOException {
+        int start = buf.readerIndex();
+        int length = buf.readableBytes();
+        if (length < 4) {
+            throw new IOException("binary frame too short");
+        }
+        switch (buf.getUnsignedByte(start)) {
+            case DICTIONARY:
+                readDictionary(buf, start, length);
+                return false;
+            case VALUES:
+                if (keys == null) {
+                    throw new IOException("binary values before a dictionary");
+                }
+                int faces = buf.getUnsignedByte(start + 1);
+                if (length != VALUES_HEADER_SIZE + faces * (4 + 4 * keys.length)) {
+                    throw new IOException("binary values frame is " + length + " bytes, expected "
+                            + (VALUES_HEADER_SIZE + faces * (4 + 4 * keys.length)) + " for " + faces + " faces");
+                }
+                return true;
+            default:
+                throw new IOException("unknown binary frame type " + buf.getUnsignedByte(start));
+        }
+    }
+
+    private void readDictionary(ByteBuf buf, int start, int length) throws IOException {
+        int version = buf.getUnsignedByte(start + 1);
+        if (version != VERSION) {
+            throw new IOException("binary dictionary version " + version + ", expected " + VERSION);
+        }
+        int count = buf.getUnsignedShortLE(start + 2);
+        if (count > MAX_KEYS) {
+            throw new IOException("binary dictionary has " + count + " keys, at most " + MAX_KEYS + " allowed");
+        }
+        int end = start + length;
+        int pos = start + 4;
+        OscAddress[] dictionary = new OscAddress[count];
+        for (int i = 0; i < count; i++) {
+            if (pos + 2 > end) {
+                throw new IOException("binary dictionary truncated");
+            }
+            int keyLength = buf.getUnsignedShortLE(pos);
+            pos += 2;
+            if (pos + keyLength > end) {
+                throw new IOException("binary dictionary truncated");
+            }
+            String key = buf.toString(pos, keyLength, StandardCharsets.UTF_8);
+            if (!key.startsWith("/") || key.length() == 1) {
+                throw new IOException("binary dictionary key '" + key + "' isn't an OSC address");
+            }
+            dictionary[i] = addressSpace.resolve(key, budget);
+            pos += keyLength;
+        }
+        keys = dictionary;
+    }
+
+    private void readFace(ByteBuf buf, int pos, OscSink sink) {
+        OscAddress[] keys = this.keys;
+        for (int i = 0; i < keys.length; i++, pos += 4) {
+            float value = buf.getFloatLE(pos);
+            if (!Float.isNaN(value)) {
+                sink.floatValue(keys[i], value);
+            }
+        }
+    }
+}
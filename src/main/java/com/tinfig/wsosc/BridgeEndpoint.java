@@ -0,0 +1,81 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+
+/**
+ * One {@link Endpoint} while the bridge runs: its own address space with the endpoint's prefix,
+ * egress with its own targets and queues, and metrics.
+ * <p>
+ * The endpoint's connections decode and send on a thread of their own rather than on the
+ * event loop that accepted them, so one endpoint's heavy stream never delays another's.
+ */
+public class BridgeEndpoint {
+    public final String name;
+    public final String path;
+    public final Metrics metrics = new Metrics();
+
+    private final Config config;
+    private final OscAddressSpace addressSpace;
+    private final OscEgress egress;
+    private final OscCoalescer coalescer;
+    private final EventLoopGroup executor;
+
+    /**
+     * @param eventLoops where the endpoint's TCP targets connect
+     */
+    public BridgeEndpoint(Config config, Endpoint endpoint, EventLoopGroup eventLoops, Logger logger) {
+        this.name = endpoint.name;
+        this.path = config.websocketPath + "/" + endpoint.name;
+        this.config = config;
+        this.addressSpace = new OscAddressSpace(endpoint.prefix != null ? endpoint.prefix : "/" + endpoint.name);
+        addressSpace.setLimit(config.maxOscAddresses);
+        this.egress = new OscEgress(endpoint.oscTargets, addressSpace,
+                endpoint.egressQueueSize > 0 ? endpoint.egressQueueSize : config.egressQueueSize,
+                metrics, logger, eventLoops);
+        egress.setSnapshotIntervalMillis(config.snapshotIntervalMillis);
+        metrics.setEgress(egress);
+        this.coalescer = config.flushRateHz > 0 ? new OscCoalescer(egress, addressSpace, config.flushRateHz) : null;
+        this.executor = new DefaultEventLoopGroup(1, new DefaultThreadFactory("endpoint-" + endpoint.name, true));
+    }
+
+    public OscEgress getEgress() {
+        return egress;
+    }
+
+    public String getPrefix() {
+        return addressSpace.root().path;
+    }
+
+    public void start() throws IOException {
+        if (coalescer != null) {
+            coalescer.start();
+        }
+    }
+
+    public void stop() {
+        if (coalescer != null) {
+            coalescer.stop();
+        }
+        egress.close();
+        executor.shutdownGracefully();
+    }
+
+    /**
+     * Replaces the main path's face handlers in a connection's pipeline with the endpoint's own,
+     * running on the endpoint's thread.
+     */
+    void install(ChannelPipeline pipeline) {
+        pipeline.remove(IngressGuard.class);
+        pipeline.remove(FaceMessageHandler.class);
+        pipeline.addLast(executor,
+                new IngressGuard(config, egress, metrics),
+                new FaceMessageHandler(config, egress, addressSpace,
+                        coalescer != null ? coalescer::newSink : egress::newSession,
+                        metrics));
+    }
+}
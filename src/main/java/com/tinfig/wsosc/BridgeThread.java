@@ -1,34 +1,48 @@
 package com.tinfig.wsosc;
 
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpChunkAggregator;
+import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 
+import java.io.File;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BridgeThread extends Thread {
-    private static final int WEBSOCKET_PORT = 5000;
-    private final List<OscTarget> oscTargets;
-    private final Runnable onMessageProcessed;
+    private static final String METRICS_PATH = "/metrics";
+    private static final String VALUES_PATH = "/values";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Config config;
+    private final Metrics metrics;
     private final Runnable onShutdown;
     private final Logger logger;
 
-    private volatile ServerBootstrap serverBootstrap;
+    private volatile EventLoopGroup bossGroup;
+    private volatile EventLoopGroup workerGroup;
+    private volatile OscEgress egress;
+    private volatile List<BridgeEndpoint> endpoints = Collections.emptyList();
     private volatile boolean crashed;
 
-    public BridgeThread(List<OscTarget> oscTargets, Runnable onMessageProcessed, Runnable onShutdown, Logger logger) {
+    public BridgeThread(Config config, Metrics metrics, Runnable onShutdown, Logger logger) {
         super("BridgeThread");
-        this.oscTargets = Collections.unmodifiableList(oscTargets);
-        this.onMessageProcessed = onMessageProcessed;
+        this.config = config;
+        this.metrics = metrics;
         this.onShutdown = onShutdown;
         this.logger = logger;
 
@@ -37,27 +51,94 @@ public class BridgeThread extends Thread {
 
     @Override
     public void run() {
-        serverBootstrap = new ServerBootstrap();
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+        final OscAddressSpace addressSpace = new OscAddressSpace();
+        addressSpace.setLimit(config.maxOscAddresses);
+        // Set once created, for the cleanup below
+        OscEgress sharedEgress = null;
+        OscCoalescer sharedCoalescer = null;
+        JournalWriter journal = null;
         try {
-            serverBootstrap.group(new NioEventLoopGroup(), new NioEventLoopGroup())
+            final OscEgress egress = new OscEgress(config.oscTargets, addressSpace, config.egressQueueSize, metrics, logger, workerGroup);
+            sharedEgress = egress;
+            egress.setSnapshotIntervalMillis(config.snapshotIntervalMillis);
+            this.egress = egress;
+            metrics.setEgress(egress);
+            final OscCoalescer coalescer = config.flushRateHz > 0 ? new OscCoalescer(egress, addressSpace, config.flushRateHz) : null;
+            sharedCoalescer = coalescer;
+            final Map<String, BridgeEndpoint> endpointsByPath = createEndpoints();
+            if (coalescer != null) {
+                coalescer.start();
+            }
+            for (BridgeEndpoint endpoint : endpoints) {
+                endpoint.start();
+            }
+            if (config.journalDirectory != null) {
+                journal = new JournalWriter(new File(config.journalDirectory), config.journalSegmentBytes());
+            }
+            final JournalWriter recorder = journal;
+            final OscBroadcaster broadcaster = new OscBroadcaster(metrics);
+
+            ServerBootstrap serverBootstrap = new ServerBootstrap();
+            serverBootstrap.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
-                    .localAddress(new InetSocketAddress(WEBSOCKET_PORT))
+                    .localAddress(new InetSocketAddress(config.websocketPort))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         public void initChannel(final SocketChannel ch) throws Exception {
                             ch.pipeline().addLast(
                                     new HttpRequestDecoder(),
-                                    new HttpChunkAggregator(65536),
+                                    new HttpObjectAggregator(65536),
                                     new HttpResponseEncoder(),
-                                    new WebSocketServerProtocolHandler("/faces"),
-                                    new FaceMessageHandler(oscTargets, onMessageProcessed));
+                                    new HttpRouteHandler(METRICS_PATH, PROMETHEUS_CONTENT_TYPE, metrics::toPrometheus),
+                                    new HttpRouteHandler(VALUES_PATH, JSON_CONTENT_TYPE, egress.getCache()::toJson));
+                            for (BridgeEndpoint endpoint : endpointsByPath.values()) {
+                                ch.pipeline().addLast(
+                                        new HttpRouteHandler(METRICS_PATH + "/" + endpoint.name, PROMETHEUS_CONTENT_TYPE, endpoint.metrics::toPrometheus),
+                                        new HttpRouteHandler(VALUES_PATH + "/" + endpoint.name, JSON_CONTENT_TYPE, endpoint.getEgress().getCache()::toJson));
+                            }
+                            ch.pipeline().addLast(
+                                    new WebSocketRouter(config.subscribePath, () -> new SubscriberHandler(broadcaster, metrics), endpointsByPath),
+                                    new WebSocketServerProtocolHandler(config.websocketPath));
+                            if (recorder != null) {
+                                ch.pipeline().addLast(new JournalRecorder(recorder));
+                            }
+                            ch.pipeline().addLast(
+                                    new IngressGuard(config, egress, metrics),
+                                    new FaceMessageHandler(config, egress, addressSpace,
+                                            coalescer != null ? coalescer::newSink : egress::newSession,
+                                            metrics));
                         }
                     });
 
             final Channel ch = serverBootstrap.bind().sync().channel();
 
-            logger.log("Starting bridge thread on TCP " + WEBSOCKET_PORT + " with " + oscTargets.size() + " targets:");
-            oscTargets.forEach(t -> logger.log("  " + t.address + ":" + t.port));
+            if (config.oscListenPort > 0) {
+                new Bootstrap()
+                        .group(workerGroup)
+                        .channel(NioDatagramChannel.class)
+                        .handler(new OscInboundHandler(broadcaster, egress, metrics))
+                        .bind(config.oscListenPort).sync();
+            }
+
+            logger.log("Starting bridge thread on TCP " + config.websocketPort + config.websocketPath);
+            logTargets(egress);
+            for (BridgeEndpoint endpoint : endpoints) {
+                logger.log("Endpoint " + endpoint.name + " on " + endpoint.path + ", sending " + endpoint.getPrefix() + "/...");
+                logTargets(endpoint.getEgress());
+            }
+            if (coalescer != null) {
+                logger.log("Coalescing OSC output at " + config.flushRateHz + " Hz");
+            }
+            if (config.oscListenPort > 0) {
+                logger.log("Forwarding OSC from UDP " + config.oscListenPort + " to ws://localhost:" + config.websocketPort + config.subscribePath);
+            }
+            if (journal != null) {
+                logger.log("Recording inbound frames to " + config.journalDirectory);
+            }
+            logger.log("Metrics at http://localhost:" + config.websocketPort + METRICS_PATH
+                    + ", last values at " + VALUES_PATH);
             logger.log("Bridge thread running!");
 
             ch.closeFuture().sync();
@@ -66,16 +147,101 @@ public class BridgeThread extends Thread {
             logger.log(Utils.toString(e));
             this.crashed = true;
         } finally {
-            serverBootstrap.shutdown();
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            if (sharedCoalescer != null) {
+                sharedCoalescer.stop();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            for (BridgeEndpoint endpoint : endpoints) {
+                endpoint.stop();
+            }
+            this.endpoints = Collections.emptyList();
+            this.egress = null;
+            if (sharedEgress != null) {
+                sharedEgress.close();
+            }
+            metrics.setEgress(null);
             logger.log("Bridge thread stopped.");
             onShutdown.run();
         }
     }
 
+    /**
+     * Creates the configured endpoints, skipping any whose name can't be a path segment.  If one
+     * can't be created, the ones created before it are stopped again.
+     *
+     * @return the endpoints by path
+     */
+    private Map<String, BridgeEndpoint> createEndpoints() {
+        List<BridgeEndpoint> endpoints = new ArrayList<>();
+        Map<String, BridgeEndpoint> byPath = new HashMap<>();
+        try {
+            if (config.endpoints != null) {
+                for (Endpoint endpoint : config.endpoints) {
+                    if (endpoint.name == null || endpoint.name.isEmpty() || endpoint.name.contains("/")) {
+                        logger.log("Skipping endpoint '" + endpoint.name + "': the name must be one path segment");
+                        continue;
+                    }
+                    BridgeEndpoint bridgeEndpoint = new BridgeEndpoint(config, endpoint, workerGroup, logger);
+                    if (byPath.putIfAbsent(bridgeEndpoint.path, bridgeEndpoint) != null) {
+                        logger.log("Skipping endpoint '" + endpoint.name + "': the name is already used");
+                        bridgeEndpoint.stop();
+                        continue;
+                    }
+                    endpoints.add(bridgeEndpoint);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (BridgeEndpoint bridgeEndpoint : endpoints) {
+                bridgeEndpoint.stop();
+            }
+            throw e;
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        return byPath;
+    }
+
+    /**
+     * The named endpoints of the running bridge, or none if it isn't running.
+     */
+    public List<BridgeEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Swaps in new OSC targets without restarting, so connected clients stay connected.
+     *
+     * @return false if the bridge isn't running, and has to be restarted to use them
+     */
+    public boolean updateTargets(List<OscTarget> oscTargets) {
+        OscEgress egress = this.egress;
+        if (egress == null) {
+            return false;
+        }
+        egress.setTargets(oscTargets);
+        logger.log("Updated OSC targets");
+        logTargets(egress);
+        return true;
+    }
+
+    private void logTargets(OscEgress egress) {
+        List<TargetSender> senders = egress.getSenders();
+        logger.log(senders.size() + " OSC targets:");
+        for (TargetSender sender : senders) {
+            OscTarget t = sender.target;
+            logger.log("  " + t.address + ":" + t.port + (t.bundle ? " (bundled)" : "")
+                    + (t.delivery != OscTarget.Delivery.UNICAST ? " " + t.delivery : "") + ", " + t.overflow);
+        }
+    }
+
     public void shutdownBridge() {
-        if (serverBootstrap != null) {
+        if (bossGroup != null) {
             logger.log("Stopping bridge thread...");
-            serverBootstrap.shutdown();
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
         }
     }
 
@@ -1,8 +1,149 @@
 package com.tinfig.wsosc;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 import java.util.ArrayList;
 import java.util.List;
 
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Config {
-    List<OscTarget> oscTargets = new ArrayList<>();
+    static final int MAX_JOURNAL_SEGMENT_MEGABYTES = 1024;
+
+    public int websocketPort = 5000;
+    public String websocketPath = "/faces";
+    public List<OscTarget> oscTargets = new ArrayList<>();
+    public Decoder decoder = Decoder.STREAMING;
+    /**
+     * How to bridge JSON messages other than face events; see {@link MessageMapping}.
+     */
+    public List<MessageMapping> messageMappings = new ArrayList<>();
+
+    /**
+     * When greater than zero, listen for OSC on this UDP port and push every packet as JSON to
+     * the WebSocket clients connected to {@link #subscribePath}.
+     */
+    public int oscListenPort;
+    public String subscribePath = "/subscribe";
+    /**
+     * Further WebSocket paths below {@link #websocketPath}, each with its own address prefix,
+     * targets, queues and thread.
+     */
+    public List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * How many packets may wait to be sent to each target before its overflow policy applies.
+     */
+    public int egressQueueSize = 1024;
+    /**
+     * How many distinct OSC addresses the bridge keeps.  Frames that would add one past this
+     * are dropped, so face ids or keys that never repeat can't use up the memory.
+     */
+    public int maxOscAddresses = OscAddressSpace.DEFAULT_LIMIT;
+    /**
+     * How many new OSC addresses one connection may add, so a single client can't take the
+     * whole of {@link #maxOscAddresses} from the others.
+     */
+    public int maxOscAddressesPerConnection = 8192;
+
+    /**
+     * Stop reading from WebSocket clients while any target's send queue is more than this
+     * fraction full, and resume once it has drained to half of that.  Zero turns it off.
+     */
+    public double egressPauseWatermark = 0.75;
+    /**
+     * When greater than zero, drop frames beyond this many a second from any one connection.
+     */
+    public int maxFramesPerSecond;
+    /**
+     * Of the frames that arrive from a connection in one read, process only the newest and
+     * drop the older ones instead of processing them late.
+     */
+    public boolean keepNewestFrame;
+
+    /**
+     * Send every face in a frame under "/face/{id}/..." instead of only the first face under
+     * "/...".  The id is the SDK's face id when it provides one, otherwise the face's index.
+     */
+    public boolean allFaces;
+    /**
+     * With {@link #allFaces}, encode faces on this many threads once a frame has at least
+     * {@link #parallelFaceThreshold} faces.
+     */
+    public int faceWorkers = Math.min(4, Runtime.getRuntime().availableProcessors());
+    public int parallelFaceThreshold = 4;
+
+    /**
+     * Don't resend values that have changed by no more than {@link #deadband} since they were
+     * last sent, except every {@link #keepAliveMillis}.
+     */
+    public boolean suppressUnchanged;
+    public float deadband;
+    public long keepAliveMillis = 1000;
+
+    /**
+     * When greater than zero, merge incoming frames and send only the latest value of each
+     * address this many times a second, instead of sending every frame as it arrives.
+     */
+    public int flushRateHz;
+
+    /**
+     * When greater than zero, hold each frame in a {@link JitterBuffer} and release it this long
+     * after the client captured it, so bursts of frames leave at an even pace.
+     */
+    public int jitterBufferMillis;
+    /**
+     * Most frames a connection's jitter buffer holds; the oldest are dropped beyond that.
+     */
+    public int jitterBufferDepth = 16;
+    /**
+     * Frames that arrive more than this long after their release time are dropped.
+     */
+    public int jitterLateMillis = 20;
+    /**
+     * Release frames this much early, timetagged with their release time, so targets with
+     * bundles enabled can schedule them themselves.
+     */
+    public int jitterTimetagLeadMillis;
+
+    /**
+     * When greater than zero, send every target the last value of every address this often,
+     * so receivers that restarted catch up without waiting for each value to change.
+     */
+    public int snapshotIntervalMillis;
+
+    /**
+     * When set, record every inbound frame to a journal in this directory, for replay with
+     * {@code --replay}.  Segment files roll over at {@link #journalSegmentMegabytes}, which may
+     * be up to 1024.
+     */
+    public String journalDirectory;
+    public int journalSegmentMegabytes = 64;
+
+    /**
+     * The size of a journal segment file in bytes.
+     */
+    public long journalSegmentBytes() {
+        return (long) journalSegmentMegabytes << 20;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a setting is out of range
+     */
+    public void validate() {
+        if (journalSegmentMegabytes < 1 || journalSegmentMegabytes > MAX_JOURNAL_SEGMENT_MEGABYTES) {
+            throw new IllegalArgumentException("journalSegmentMegabytes must be between 1 and "
+                    + MAX_JOURNAL_SEGMENT_MEGABYTES + ", not " + journalSegmentMegabytes);
+        }
+    }
+
+    public enum Decoder {
+        /**
+         * Parse face events token by token straight into OSC.
+         */
+        STREAMING,
+        /**
+         * Bind each message to a {@link FaceMessage} first.  Slower, kept for comparison.
+         */
+        BINDING
+    }
 }
@@ -0,0 +1,123 @@
+package com.tinfig.wsosc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer queue of datagrams.
+ * <p>
+ * Each slot owns a preallocated buffer that offered datagrams are copied into, so queueing
+ * allocates nothing.  Readers claim a slot, use its buffer, then release it.  The slot
+ * sequence scheme follows Dmitry Vyukov's bounded MPMC queue.
+ */
+public class DatagramRing {
+    private final int capacity;
+    private final int mask;
+    private final ByteBuffer[] slots;
+    private final long[] enqueuedNanos;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity    number of datagrams, rounded up to a power of two
+     * @param maxDatagram size of each slot's buffer
+     */
+    public DatagramRing(int capacity, int maxDatagram) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new ByteBuffer[this.capacity];
+        this.enqueuedNanos = new long[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            slots[i] = ByteBuffer.allocateDirect(maxDatagram);
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Approximate number of queued datagrams.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    /**
+     * Copies the datagram's remaining bytes into the ring, leaving its position unchanged.
+     *
+     * @return false if the ring is full or the datagram is larger than a slot
+     */
+    public boolean offer(ByteBuffer datagram) {
+        if (datagram.remaining() > slots[0].capacity()) {
+            return false;
+        }
+
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    ByteBuffer slot = slots[index];
+                    int start = datagram.position();
+                    slot.clear();
+                    slot.put(datagram).flip();
+                    datagram.position(start);
+                    enqueuedNanos[index] = System.nanoTime();
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Claims the oldest datagram for reading.
+     *
+     * @return a position to pass to {@link #slot(long)} and {@link #release(long)}, or -1 if
+     * the ring is empty
+     */
+    public long claim() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    return pos;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return -1;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public ByteBuffer slot(long pos) {
+        return slots[(int) pos & mask];
+    }
+
+    /**
+     * The {@link System#nanoTime()} at which a claimed datagram was queued.
+     */
+    public long enqueuedNanos(long pos) {
+        return enqueuedNanos[(int) pos & mask];
+    }
+
+    public void release(long pos) {
+        sequences.set((int) pos & mask, pos + capacity);
+    }
+}
@@ -0,0 +1,86 @@
+package com.tinfig.wsosc;
+
+import java.util.Arrays;
+
+/**
+ * Drops values that haven't moved by more than a dead-band since they were last sent, with a
+ * periodic keep-alive so receivers still hear from every address now and then.
+ * <p>
+ * State is kept per address id in primitive arrays.  Not thread safe; every connection gets
+ * its own filter.
+ */
+public class DeadbandFilter implements OscSink {
+    private final OscSink next;
+    private final float deadband;
+    private final long keepAliveNanos;
+
+    private float[] lastFloats = new float[256];
+    private String[] lastStrings = new String[256];
+    private long[] lastSentNanos = new long[256];
+    private boolean[] sent = new boolean[256];
+    private long frameNanos;
+
+    /**
+     * @param deadband        values within this distance of the last sent value are dropped
+     * @param keepAliveMillis resend unchanged values this often; zero or less to never resend
+     */
+    public DeadbandFilter(OscSink next, float deadband, long keepAliveMillis) {
+        this.next = next;
+        this.deadband = deadband;
+        this.keepAliveNanos = keepAliveMillis > 0 ? keepAliveMillis * 1_000_000 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void beginFrame(long timetag) {
+        frameNanos = System.nanoTime();
+        next.beginFrame(timetag);
+    }
+
+    @Override
+    public void floatValue(OscAddress address, float value) {
+        int id = address.id;
+        ensureCapacity(id);
+        if (sent[id] && Math.abs(value - lastFloats[id]) <= deadband && !keepAliveDue(id)) {
+            return;
+        }
+        lastFloats[id] = value;
+        markSent(id);
+        next.floatValue(address, value);
+    }
+
+    @Override
+    public void stringValue(OscAddress address, String value) {
+        int id = address.id;
+        ensureCapacity(id);
+        if (sent[id] && value.equals(lastStrings[id]) && !keepAliveDue(id)) {
+            return;
+        }
+        lastStrings[id] = value;
+        markSent(id);
+        next.stringValue(address, value);
+    }
+
+    @Override
+    public void endFrame() {
+        next.endFrame();
+    }
+
+    private boolean keepAliveDue(int id) {
+        return frameNanos - lastSentNanos[id] >= keepAliveNanos;
+    }
+
+    private void markSent(int id) {
+        sent[id] = true;
+        lastSentNanos[id] = frameNanos;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= sent.length) {
+            int length = Math.max(id + 1, sent.length * 2);
+            lastFloats = Arrays.copyOf(lastFloats, length);
+            lastStrings = Arrays.copyOf(lastStrings, length);
+            lastSentNanos = Arrays.copyOf(lastSentNanos, length);
+            sent = Arrays.copyOf(sent, length);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.tinfig.wsosc;
+
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One connection's view of the {@link OscEgress}.  Each value is encoded once into a reusable
+ * buffer and handed to a {@link OscPacketWriter} per target, which queues the finished
+ * datagrams on the target's {@link TargetSender}, so steady state sending allocates nothing.
+ * <p>
+ * Values go only to the targets whose routes want them, renamed and scaled per target; a
+ * value no target wants is never encoded.
+ * <p>
+ * The session follows {@link OscEgress#setTargets} by switching to the new snapshot at the
+ * start of its next frame.
+ * <p>
+ * Frames for a backlogged {@link OscTarget.Overflow#COALESCE} target are merged into its
+ * latest-value table instead.
+ * <p>
+ * Every value is also recorded in the egress's {@link LastValueCache}, except by sessions that
+ * replay the cache to a single target.
+ * <p>
+ * Not thread safe; every connection gets its own session.
+ */
+public class EgressSession implements OscSink {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(EgressSession.class);
+
+    private final ByteBuffer message = ByteBuffer.allocateDirect(OscEncoder.MAX_DATAGRAM_SIZE - OscEncoder.BUNDLE_HEADER_SIZE - 4);
+    private final OscEgress egress;
+    private final Metrics metrics;
+    private final LastValueCache cache;
+    private final TargetSender only;
+    private OscEgress.Snapshot snapshot;
+    private TargetSender[] senders;
+    private OscPacketWriter[] writers;
+    private boolean[] coalescing;
+    private RoutingTable routing;
+    // The targets this session sends to, as routing table bits
+    private long targetMask;
+    private int values;
+
+    /**
+     * @param only the one target to send to without recording values, or null for all of them
+     */
+    EgressSession(OscEgress egress, TargetSender only) {
+        this.egress = egress;
+        this.metrics = egress.getMetrics();
+        this.cache = only == null ? egress.getCache() : null;
+        this.only = only;
+        use(egress.getSnapshot());
+    }
+
+    private void use(OscEgress.Snapshot snapshot) {
+        List<TargetSender> senders = snapshot.senders;
+        this.snapshot = snapshot;
+        this.senders = senders.toArray(new TargetSender[0]);
+        this.writers = new OscPacketWriter[this.senders.length];
+        this.coalescing = new boolean[this.senders.length];
+        this.routing = snapshot.routing;
+        this.targetMask = only == null ? -1L : 0;
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new OscPacketWriter(this.senders[i].target.bundle, this.senders[i]::send);
+            if (this.senders[i] == only) {
+                targetMask = 1L << i;
+            }
+        }
+    }
+
+    @Override
+    public void beginFrame(long timetag) {
+        // Targets only change between frames, so a frame never goes half to each set
+        OscEgress.Snapshot current = egress.getSnapshot();
+        if (current != snapshot) {
+            use(current);
+        }
+        values = 0;
+        for (int i = 0; i < senders.length; i++) {
+            if ((targetMask & 1L << i) == 0) {
+                continue;
+            }
+            coalescing[i] = senders[i].isBacklogged();
+            if (coalescing[i]) {
+                senders[i].getCoalesced().setTimetag(timetag);
+            } else {
+                writers[i].begin(timetag);
+            }
+        }
+    }
+
+    @Override
+    public void floatValue(OscAddress address, float value) {
+        if (cache != null) {
+            cache.putFloat(address, value);
+        }
+        RoutingTable.Entry route = routing.get(address);
+        long targets = route.mask & targetMask;
+        if (targets == 0) {
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("sending '{}': {}", address, value);
+        }
+        values++;
+        OscAddress encodedAddress = null;
+        float encodedValue = 0;
+        for (long mask = targets; mask != 0; mask &= mask - 1) {
+            int i = Long.numberOfTrailingZeros(mask);
+            OscAddress routed = route.addresses[i];
+            float scaled = value * route.scales[i];
+            if (coalescing[i]) {
+                senders[i].getCoalesced().putFloat(routed, scaled);
+                continue;
+            }
+            // Targets with the same route share one encoding
+            if (routed != encodedAddress || Float.floatToIntBits(scaled) != Float.floatToIntBits(encodedValue)) {
+                message.clear();
+                if (!OscEncoder.writeFloat(message, routed, scaled)) {
+                    LOG.warn("OSC message for '{}' is too large to send", routed);
+                    continue;
+                }
+                message.flip();
+                encodedAddress = routed;
+                encodedValue = scaled;
+            }
+            writers[i].add(message);
+        }
+    }
+
+    @Override
+    public void stringValue(OscAddress address, String value) {
+        if (cache != null) {
+            cache.putString(address, value);
+        }
+        RoutingTable.Entry route = routing.get(address);
+        long targets = route.mask & targetMask;
+        if (targets == 0) {
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("sending '{}': {}", address, value);
+        }
+        values++;
+        OscAddress encodedAddress = null;
+        for (long mask = targets; mask != 0; mask &= mask - 1) {
+            int i = Long.numberOfTrailingZeros(mask);
+            OscAddress routed = route.addresses[i];
+            if (coalescing[i]) {
+                senders[i].getCoalesced().putString(routed, value);
+                continue;
+            }
+            if (routed != encodedAddress) {
+                message.clear();
+                if (!OscEncoder.writeString(message, routed, value)) {
+                    LOG.warn("OSC message for '{}' is too large to send", routed);
+                    continue;
+                }
+                message.flip();
+                encodedAddress = routed;
+            }
+            writers[i].add(message);
+        }
+    }
+
+    @Override
+    public void endFrame() {
+        metrics.oscValues.add(values);
+        for (int i = 0; i < senders.length; i++) {
+            if ((targetMask & 1L << i) == 0) {
+                continue;
+            }
+            if (coalescing[i]) {
+                senders[i].wake();
+            } else {
+                writers[i].end();
+            }
+        }
+    }
+}
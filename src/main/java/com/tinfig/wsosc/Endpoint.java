@@ -0,0 +1,34 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named WebSocket endpoint at the WebSocket path followed by "/" and its name, such as
+ * {@code /faces/alice}, kept apart from the main path and from every other endpoint.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Endpoint {
+    public String name;
+    /**
+     * Put in front of every OSC address the endpoint sends.  Defaults to "/" and the name.
+     */
+    public String prefix;
+    public List<OscTarget> oscTargets = new ArrayList<>();
+    /**
+     * Packets each of the endpoint's targets may queue, or 0 for the bridge's
+     * {@link Config#egressQueueSize}.
+     */
+    public int egressQueueSize;
+
+    public Endpoint() {
+    }
+
+    public Endpoint(String name, String prefix, List<OscTarget> oscTargets) {
+        this.name = name;
+        this.prefix = prefix;
+        this.oscTargets = oscTargets;
+    }
+}
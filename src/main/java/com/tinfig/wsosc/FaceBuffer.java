@@ -0,0 +1,83 @@
+package com.tinfig.wsosc;
+
+import java.util.Arrays;
+
+/**
+ * Records one face's values, addressed relative to the face (e.g. "/emotions/joy"), so they
+ * can be sent later under that face's namespace.  Reused from frame to frame.
+ */
+public class FaceBuffer implements OscSink {
+    /**
+     * The face's identity: the SDK's face id when it provides one, otherwise its index.
+     */
+    int key;
+
+    private OscAddress[] addresses = new OscAddress[128];
+    private float[] floats = new float[128];
+    private String[] strings = new String[128];
+    private int count;
+
+    void clear(int key) {
+        this.key = key;
+        Arrays.fill(strings, 0, count, null);
+        count = 0;
+    }
+
+    @Override
+    public void beginFrame(long timetag) {
+    }
+
+    @Override
+    public void floatValue(OscAddress address, float value) {
+        int i = append(address);
+        floats[i] = value;
+    }
+
+    @Override
+    public void stringValue(OscAddress address, String value) {
+        int i = append(address);
+        strings[i] = value;
+    }
+
+    @Override
+    public void endFrame() {
+    }
+
+    /**
+     * Sends the recorded values to the sink at the addresses they were recorded with.
+     */
+    void replay(OscSink sink) {
+        for (int i = 0; i < count; i++) {
+            if (strings[i] != null) {
+                sink.stringValue(addresses[i], strings[i]);
+            } else {
+                sink.floatValue(addresses[i], floats[i]);
+            }
+        }
+    }
+
+    /**
+     * Sends the recorded values to the sink, mapping each address into the namespace.
+     */
+    void replay(FaceNamespace namespace, OscSink sink) {
+        for (int i = 0; i < count; i++) {
+            OscAddress address = namespace.map(addresses[i]);
+            if (strings[i] != null) {
+                sink.stringValue(address, strings[i]);
+            } else {
+                sink.floatValue(address, floats[i]);
+            }
+        }
+    }
+
+    private int append(OscAddress address) {
+        if (count == addresses.length) {
+            int length = count * 2;
+            addresses = Arrays.copyOf(addresses, length);
+            floats = Arrays.copyOf(floats, length);
+            strings = Arrays.copyOf(strings, length);
+        }
+        addresses[count] = address;
+        return count++;
+    }
+}
@@ -0,0 +1,185 @@
+package com.tinfig.wsosc;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Sends every face of a {@link FaceFrame} under its own "/face/{id}" namespace.
+ * <p>
+ * Faces are spread over a fixed number of sink chains by face id, so a face's addresses
+ * always pass through the same chain and its per-address state (such as dead-bands) stays
+ * consistent.  When a frame has enough faces the chains are encoded in parallel on the
+ * common fork-join pool; otherwise they run on the calling thread.
+ * <p>
+ * Not thread safe; every connection gets its own dispatcher.
+ */
+public class FaceDispatcher {
+    private static final int CACHED_NAMESPACES = 1024;
+    // Face ids outside 0..1023 live in an open-addressed table of at most this many, cleared
+    // when full so ids that keep increasing over a show can't grow it forever
+    private static final int MAX_OUTLIERS = 256;
+
+    private final OscAddressSpace addressSpace;
+    private final ChainTask[] chains;
+    private final int parallelThreshold;
+    private FaceNamespace[] namespaces = new FaceNamespace[16];
+    private final OutlierTable outliers = new OutlierTable();
+    // The namespace of each face in the current frame, resolved before the chains run
+    private FaceNamespace[] frameNamespaces = new FaceNamespace[16];
+
+    /**
+     * @param chainCount        how many sink chains (and so how many threads) faces are spread over
+     * @param parallelThreshold encode in parallel when a frame has at least this many faces
+     */
+    public FaceDispatcher(OscAddressSpace addressSpace, Supplier<OscSink> chainFactory, int chainCount, int parallelThreshold) {
+        this.addressSpace = addressSpace;
+        this.parallelThreshold = parallelThreshold;
+        this.chains = new ChainTask[Math.max(1, chainCount)];
+        for (int i = 0; i < chains.length; i++) {
+            chains[i] = new ChainTask(i, chainFactory.get());
+        }
+    }
+
+    public void dispatch(FaceFrame frame) {
+        // Namespaces are found on this thread so the chains only read them
+        if (frameNamespaces.length < frame.size()) {
+            frameNamespaces = new FaceNamespace[Math.max(frame.size(), frameNamespaces.length * 2)];
+        }
+        for (int i = 0; i < frame.size(); i++) {
+            frameNamespaces[i] = namespace(frame.get(i).key);
+        }
+        for (ChainTask chain : chains) {
+            chain.frame = frame;
+        }
+
+        if (frame.size() < parallelThreshold || chains.length == 1) {
+            for (ChainTask chain : chains) {
+                chain.run();
+            }
+            return;
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int i = 1; i < chains.length; i++) {
+            chains[i].reinitialize();
+            pool.execute(chains[i]);
+        }
+        // Every chain must finish before the frame is reused, even if one of them fails
+        Throwable failure = null;
+        try {
+            chains[0].run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (int i = 1; i < chains.length; i++) {
+            chains[i].quietlyJoin();
+            if (failure == null && chains[i].isCompletedAbnormally()) {
+                failure = chains[i].getException();
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private FaceNamespace namespace(int key) {
+        if (key < 0 || key >= CACHED_NAMESPACES) {
+            FaceNamespace namespace = outliers.get(key);
+            if (namespace == null) {
+                namespace = new FaceNamespace(addressSpace, key);
+                outliers.put(key, namespace);
+            }
+            return namespace;
+        }
+        if (key >= namespaces.length) {
+            namespaces = Arrays.copyOf(namespaces, Math.min(CACHED_NAMESPACES, Math.max(key + 1, namespaces.length * 2)));
+        }
+        FaceNamespace namespace = namespaces[key];
+        if (namespace == null) {
+            namespace = namespaces[key] = new FaceNamespace(addressSpace, key);
+        }
+        return namespace;
+    }
+
+    private int chainOf(int key) {
+        return Math.floorMod(key, chains.length);
+    }
+
+    private class ChainTask extends RecursiveAction {
+        private final OscSink sink;
+        private final int index;
+        private FaceFrame frame;
+
+        ChainTask(int index, OscSink sink) {
+            this.index = index;
+            this.sink = sink;
+        }
+
+        void run() {
+            boolean started = false;
+            for (int i = 0; i < frame.size(); i++) {
+                FaceBuffer face = frame.get(i);
+                if (chainOf(face.key) != index) {
+                    continue;
+                }
+                if (!started) {
+                    sink.beginFrame(frame.timetag);
+                    started = true;
+                }
+                face.replay(frameNamespaces[i], sink);
+            }
+            if (started) {
+                sink.endFrame();
+            }
+        }
+
+        @Override
+        protected void compute() {
+            run();
+        }
+    }
+
+    /**
+     * Face id to namespace by open addressing, so a lookup doesn't box.  Only used by the
+     * dispatching thread.
+     */
+    private static class OutlierTable {
+        private final int[] keys = new int[MAX_OUTLIERS * 2];
+        private final FaceNamespace[] values = new FaceNamespace[MAX_OUTLIERS * 2];
+        private int size;
+
+        FaceNamespace get(int key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(int key, FaceNamespace namespace) {
+            if (size == MAX_OUTLIERS) {
+                Arrays.fill(values, null);
+                size = 0;
+            }
+            int mask = keys.length - 1;
+            int i = slot(key);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = namespace;
+            size++;
+        }
+
+        private int slot(int key) {
+            // Spreads ids that differ only in their high bits
+            return (key * 0x9e3779b9 >>> 16) & (keys.length - 1);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes face event JSON straight to an {@link OscSink} with Jackson's streaming parser,
+ * without building a {@link FaceMessage} tree or boxing any values.
+ * <p>
+ * Either only the first face of each event is sent straight to a sink, or every face is
+ * recorded into a {@link FaceFrame}.  A first face that comes before the event's timestamp is
+ * held until the end of the event, so its frame still carries the timestamp.  Not thread safe; every connection gets its own decoder.
+ */
+public class FaceEventDecoder {
+    public static final String FACE_EVENT = "faceEvent";
+
+    private final JsonFactory factory;
+    private final FrameClock frameClock;
+    private final OscAddress emotions;
+    private final OscAddress expressions;
+    private final OscAddress appearance;
+    private final OscAddress interocularDistance;
+    private final OscAddress orientation;
+    private final OscAddress featurePoints;
+
+    // Last string value seen per address id, so repeated appearance values aren't reallocated
+    private String[] lastStrings = new String[64];
+
+    // The first face, when it comes before the timestamp
+    private final FaceBuffer heldFace = new FaceBuffer();
+    private boolean holding;
+
+    private OscSink sink;
+    private FaceFrame frame;
+    private FaceBuffer face;
+    private double timestamp;
+    private boolean haveTimestamp;
+    private boolean frameStarted;
+
+    public FaceEventDecoder(JsonFactory factory, OscAddressSpace addressSpace, FrameClock frameClock) {
+        this.factory = factory;
+        this.frameClock = frameClock;
+        this.emotions = addressSpace.resolve("/emotions");
+        this.expressions = addressSpace.resolve("/expressions");
+        this.appearance = addressSpace.resolve("/appearance");
+        this.interocularDistance = addressSpace.resolve("/measurements/interocularDistance");
+        this.orientation = addressSpace.resolve("/measurements/orientation");
+        this.featurePoints = addressSpace.resolve("/featurePoints");
+    }
+
+    /**
+     * Decodes one message, sending the first face of a face event to the sink as it is parsed.
+     *
+     * @return the message's type, or null if it has none
+     */
+    public String decode(byte[] buf, int offset, int length, OscSink sink) throws IOException {
+        this.sink = sink;
+        this.frame = null;
+        boolean parsed = false;
+        try {
+            String type = decode(buf, offset, length);
+            parsed = true;
+            return type;
+        } finally {
+            // A frame cut short by bad JSON is abandoned; the sink's next frame starts over
+            if (frameStarted && parsed) {
+                sink.endFrame();
+            }
+            this.sink = null;
+        }
+    }
+
+    /**
+     * Decodes one message, recording every face of a face event into the frame.
+     *
+     * @return the message's type, or null if it has none
+     */
+    public String decode(byte[] buf, int offset, int length, FaceFrame frame) throws IOException {
+        this.frame = frame;
+        frame.clear();
+        try {
+            return decode(buf, offset, length);
+        } finally {
+            if (haveTimestamp) {
+                frame.timetag = frameClock.toTimetag(timestamp);
+            }
+            this.frame = null;
+            this.face = null;
+            this.sink = null;
+        }
+    }
+
+    private String decode(byte[] buf, int offset, int length) throws IOException {
+        haveTimestamp = false;
+        frameStarted = false;
+        holding = false;
+
+        String type = null;
+        boolean dataFirst = false;
+        try (JsonParser p = factory.createParser(buf, offset, length)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "expected a JSON object");
+            }
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("type".equals(name)) {
+                    type = readType(p, token);
+                } else if ("data".equals(name)) {
+                    if (type == null) {
+                        dataFirst = true;
+                    }
+                    if (!dataFirst && type == FACE_EVENT && token == JsonToken.START_OBJECT) {
+                        decodeData(p);
+                    } else {
+                        p.skipChildren();
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        // The data came before the type, so go back for it now that the type is known
+        if (dataFirst && type == FACE_EVENT) {
+            decodeLateData(buf, offset, length);
+        }
+        return type;
+    }
+
+    private void decodeLateData(byte[] buf, int offset, int length) throws IOException {
+        try (JsonParser p = factory.createParser(buf, offset, length)) {
+            p.nextToken();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("data".equals(name) && token == JsonToken.START_OBJECT) {
+                    decodeData(p);
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void decodeData(JsonParser p) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if ("timestamp".equals(name) && token.isNumeric()) {
+                timestamp = p.getDoubleValue();
+                haveTimestamp = true;
+            } else if ("faces".equals(name) && token == JsonToken.START_ARRAY) {
+                decodeFaces(p);
+            } else {
+                p.skipChildren();
+            }
+        }
+        if (holding) {
+            holding = false;
+            startFrame();
+            heldFace.replay(sink);
+        }
+    }
+
+    private void decodeFaces(JsonParser p) throws IOException {
+        if (frame != null) {
+            int index = 0;
+            for (JsonToken token = p.nextToken(); token != JsonToken.END_ARRAY; token = p.nextToken()) {
+                if (token == JsonToken.START_OBJECT) {
+                    face = frame.addFace(index);
+                    sink = face;
+                    decodeFace(p);
+                } else {
+                    p.skipChildren();
+                }
+                index++;
+            }
+            return;
+        }
+
+        boolean first = true;
+        for (JsonToken token = p.nextToken(); token != JsonToken.END_ARRAY; token = p.nextToken()) {
+            if (first && token == JsonToken.START_OBJECT) {
+                // Process only the first face.
+                first = false;
+                if (haveTimestamp) {
+                    startFrame();
+                    decodeFace(p);
+                } else {
+                    OscSink out = sink;
+                    heldFace.clear(0);
+                    sink = heldFace;
+                    try {
+                        decodeFace(p);
+                    } finally {
+                        sink = out;
+                    }
+                    holding = true;
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private void decodeFace(JsonParser p) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            switch (name) {
+                case "id":
+                    if (face != null && token == JsonToken.VALUE_NUMBER_INT) {
+                        face.key = p.getIntValue();
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                case "emotions":
+                    decodeFloats(p, emotions);
+                    break;
+                case "expressions":
+                    decodeFloats(p, expressions);
+                    break;
+                case "appearance":
+                    decodeStrings(p, appearance);
+                    break;
+                case "measurements":
+                    decodeMeasurements(p);
+                    break;
+                case "featurePoints":
+                    decodeFeaturePoints(p);
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+    }
+
+    private void decodeMeasurements(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if ("interocularDistance".equals(name) && token.isNumeric()) {
+                sink.floatValue(interocularDistance, p.getFloatValue());
+            } else if ("orientation".equals(name)) {
+                decodeFloats(p, orientation);
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private void decodeFeaturePoints(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            OscAddress point = featurePoints.child(p.getCurrentName());
+            p.nextToken();
+            decodeFloats(p, point);
+        }
+    }
+
+    private void decodeFloats(JsonParser p, OscAddress parent) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            OscAddress address = parent.child(p.getCurrentName());
+            if (p.nextToken().isNumeric()) {
+                sink.floatValue(address, p.getFloatValue());
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private void decodeStrings(JsonParser p, OscAddress parent) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            OscAddress address = parent.child(p.getCurrentName());
+            JsonToken token = p.nextToken();
+            if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+                sink.stringValue(address, readString(p, address));
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private void startFrame() {
+        sink.beginFrame(haveTimestamp ? frameClock.toTimetag(timestamp) : OscEncoder.TIMETAG_IMMEDIATELY);
+        frameStarted = true;
+    }
+
+    private static String readType(JsonParser p, JsonToken token) throws IOException {
+        if (token != JsonToken.VALUE_STRING) {
+            p.skipChildren();
+            return null;
+        }
+        return textEquals(p, FACE_EVENT) ? FACE_EVENT : p.getText();
+    }
+
+    private String readString(JsonParser p, OscAddress address) throws IOException {
+        if (address.id >= lastStrings.length) {
+            lastStrings = Arrays.copyOf(lastStrings, Math.max(address.id + 1, lastStrings.length * 2));
+        }
+        String last = lastStrings[address.id];
+        if (last != null && textEquals(p, last)) {
+            return last;
+        }
+        return lastStrings[address.id] = p.getText();
+    }
+
+    private static boolean textEquals(JsonParser p, String s) throws IOException {
+        int length = p.getTextLength();
+        if (length != s.length()) {
+            return false;
+        }
+        char[] chars = p.getTextCharacters();
+        int offset = p.getTextOffset();
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package com.tinfig.wsosc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every face of one face event, recorded by the decoder for {@link FaceDispatcher}.
+ * Reused from frame to frame.
+ */
+public class FaceFrame {
+    long timetag = OscEncoder.TIMETAG_IMMEDIATELY;
+
+    private final List<FaceBuffer> faces = new ArrayList<>();
+    private int count;
+
+    void clear() {
+        timetag = OscEncoder.TIMETAG_IMMEDIATELY;
+        count = 0;
+    }
+
+    /**
+     * Starts recording the face at the given index in the event.
+     */
+    FaceBuffer addFace(int index) {
+        if (count == faces.size()) {
+            faces.add(new FaceBuffer());
+        }
+        FaceBuffer face = faces.get(count++);
+        face.clear(index);
+        return face;
+    }
+
+    int size() {
+        return count;
+    }
+
+    FaceBuffer get(int i) {
+        return faces.get(i);
+    }
+}
@@ -12,7 +12,7 @@ public class FaceMessage {
 
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class FaceMessageData {
-        public float timestamp;
+        public double timestamp;
         public List<Face> faces;
     }
 
@@ -24,6 +24,7 @@ public class FaceMessage {
 
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Face {
+        public Integer id;
         public Map<String, Float> emotions;
         public Map<String, Float> expressions;
         public Map<String, String> appearance;
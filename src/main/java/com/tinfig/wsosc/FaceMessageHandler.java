@@ -3,118 +3,311 @@ package com.tinfig.wsosc;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.illposed.osc.OSCMessage;
-import com.illposed.osc.OSCPortOut;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundMessageHandlerAdapter;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 
 
-public class FaceMessageHandler extends ChannelInboundMessageHandlerAdapter<TextWebSocketFrame> {
+public class FaceMessageHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
     private static final Logger LOG = LoggerFactory.getLogger(FaceMessageHandler.class);
 
     private final ObjectMapper mapper = new ObjectMapper();
-    private final List<OSCPortOut> senders;
-    private final Runnable onMessageProcessed;
+    private final FrameClock frameClock = new FrameClock();
+    private final Config config;
+    private final FaceEventDecoder decoder;
+    private final BinaryFaceDecoder binaryDecoder;
+    private final JsonFlattener flattener;
+    private final OscSink flattenedSink;
+    private final OscEgress egress;
+    private final OscSink sink;
+    private final FaceFrame faceFrame;
+    private final FaceDispatcher faceDispatcher;
+    private final Metrics metrics;
+    private final OscAddress emotions;
+    private final OscAddress expressions;
+    private final OscAddress appearance;
+    private final OscAddress interocularDistance;
+    private final OscAddress orientation;
+    private final OscAddress featurePoints;
+    // Face workers may create their sinks concurrently
+    private final List<JitterBuffer> jitterBuffers = new CopyOnWriteArrayList<>();
 
-    public FaceMessageHandler(List<OscTarget> targets, Runnable onMessageProcessed) throws SocketException, UnknownHostException {
-        List<OSCPortOut> senders = new ArrayList<>();
-        for (OscTarget target : targets) {
-            senders.add(new OSCPortOut(InetAddress.getByName(target.address), target.port));
+    private boolean connected;
+    private boolean warnedAddressLimit;
+
+    // Holds frames from direct buffers for the streaming decoder
+    private byte[] frameBytes = new byte[4096];
+
+    /**
+     * @param outputs creates the sinks this connection's frames go to, usually egress sessions
+     */
+    public FaceMessageHandler(Config config, OscEgress egress, OscAddressSpace addressSpace, Supplier<OscSink> outputs, Metrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.decoder = new FaceEventDecoder(mapper.getFactory(), addressSpace, frameClock);
+        AddressBudget budget = new AddressBudget(config.maxOscAddressesPerConnection);
+        this.binaryDecoder = new BinaryFaceDecoder(addressSpace, frameClock, budget);
+        this.egress = egress;
+        if (config.allFaces) {
+            this.sink = null;
+            this.faceFrame = new FaceFrame();
+            this.faceDispatcher = new FaceDispatcher(addressSpace, () -> filter(outputs.get()),
+                    config.faceWorkers, config.parallelFaceThreshold);
+        } else {
+            this.sink = filter(outputs.get());
+            this.faceFrame = null;
+            this.faceDispatcher = null;
+        }
+        if (config.messageMappings != null && !config.messageMappings.isEmpty()) {
+            this.flattener = new JsonFlattener(mapper.getFactory(), addressSpace, frameClock, config.messageMappings, budget);
+            this.flattenedSink = sink != null ? sink : filter(outputs.get());
+        } else {
+            this.flattener = null;
+            this.flattenedSink = null;
+        }
+        this.emotions = addressSpace.resolve("/emotions");
+        this.expressions = addressSpace.resolve("/expressions");
+        this.appearance = addressSpace.resolve("/appearance");
+        this.interocularDistance = addressSpace.resolve("/measurements/interocularDistance");
+        this.orientation = addressSpace.resolve("/measurements/orientation");
+        this.featurePoints = addressSpace.resolve("/featurePoints");
+    }
+
+    private OscSink filter(OscSink output) {
+        if (config.jitterBufferMillis > 0) {
+            JitterBuffer jitterBuffer = new JitterBuffer(output, config, metrics);
+            jitterBuffers.add(jitterBuffer);
+            output = jitterBuffer;
         }
-        this.senders = Collections.unmodifiableList(senders);
-        this.onMessageProcessed = onMessageProcessed;
+        if (config.suppressUnchanged) {
+            return new DeadbandFilter(output, config.deadband, config.keepAliveMillis);
+        }
+        return output;
     }
 
     @Override
-    public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        LOG.info("[{}] connected", ctx.channel().remoteAddress());
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        // Plain HTTP requests such as /metrics never get here, so only count WebSocket clients
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            LOG.info("[{}] connected", ctx.channel().remoteAddress());
+            metrics.connectionsOpened.increment();
+            metrics.connectionsActive.increment();
+            egress.retain();
+            connected = true;
+        }
+        super.userEventTriggered(ctx, evt);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        LOG.info("[{}] disconnected", ctx.channel().remoteAddress());
+        if (connected) {
+            LOG.info("[{}] disconnected", ctx.channel().remoteAddress());
+            metrics.connectionsActive.decrement();
+            egress.release();
+        }
+        closeJitterBuffers();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        closeJitterBuffers();
+        super.handlerRemoved(ctx);
+    }
+
+    private void closeJitterBuffers() {
+        for (JitterBuffer jitterBuffer : jitterBuffers) {
+            jitterBuffer.close();
+        }
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, TextWebSocketFrame msg) throws Exception {
-        String json = msg.getText();
-        LOG.debug("[{}] received: {}", ctx.channel().remoteAddress(), json);
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) throws Exception {
+        long startNanos = System.nanoTime();
+        metrics.framesReceived.increment();
+        metrics.frameBytes.add(msg.content().readableBytes());
+        try {
+            if (msg instanceof TextWebSocketFrame) {
+                textFrame(ctx, (TextWebSocketFrame) msg, startNanos);
+            } else if (msg instanceof BinaryWebSocketFrame) {
+                binaryFrame(ctx, msg.content(), startNanos);
+            }
+        } catch (AddressSpaceFullException e) {
+            metrics.framesOverAddressLimit.increment();
+            if (!warnedAddressLimit) {
+                LOG.warn("[{}] dropping frames that need new OSC addresses: {}", ctx.channel().remoteAddress(), e.getMessage());
+                warnedAddressLimit = true;
+            }
+        }
+    }
+
+    private void binaryFrame(ChannelHandlerContext ctx, ByteBuf content, long startNanos) {
+        try {
+            if (faceFrame != null) {
+                if (binaryDecoder.decode(content, faceFrame)) {
+                    faceDispatcher.dispatch(faceFrame);
+                }
+            } else {
+                binaryDecoder.decode(content, sink);
+            }
+        } catch (IOException e) {
+            metrics.framesInvalid.increment();
+            LOG.error("[{}] invalid binary frame: {}", ctx.channel().remoteAddress(), e.getMessage());
+            return;
+        }
+        messageProcessed(startNanos);
+    }
+
+    private void textFrame(ChannelHandlerContext ctx, TextWebSocketFrame msg, long startNanos) throws IOException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[{}] received: {}", ctx.channel().remoteAddress(), msg.text());
+        }
+
+        if (config.decoder == Config.Decoder.STREAMING) {
+            String type;
+            try {
+                type = decode(msg.content());
+            } catch (JsonParseException e) {
+                metrics.framesInvalid.increment();
+                LOG.error("[{}] invalid JSON", ctx.channel().remoteAddress(), e);
+                return;
+            }
+
+            if (!FaceEventDecoder.FACE_EVENT.equals(type)) {
+                if (!isFlattened(type)) {
+                    LOG.warn("[{}] unknown event type '{}'", ctx.channel().remoteAddress(), type);
+                }
+            } else if (faceDispatcher != null) {
+                faceDispatcher.dispatch(faceFrame);
+            }
+            messageProcessed(startNanos);
+            return;
+        }
 
         FaceMessage faceMessage;
         try {
-            faceMessage = mapper.readValue(json, FaceMessage.class);
+            faceMessage = mapper.readValue(msg.text(), FaceMessage.class);
         } catch (JsonParseException | JsonMappingException e) {
+            metrics.framesInvalid.increment();
             LOG.error("[{}] invalid JSON", ctx.channel().remoteAddress(), e);
             return;
         }
 
-        switch (faceMessage.type) {
-            case "faceEvent":
-                handleFaceEvent(faceMessage.data);
-                break;
-            default:
-                LOG.warn("[{}] unknown event type '{}'", ctx.channel().remoteAddress(), faceMessage.type);
-                break;
+        if (FaceEventDecoder.FACE_EVENT.equals(faceMessage.type)) {
+            handleFaceEvent(faceMessage.data);
+        } else if (isFlattened(faceMessage.type)) {
+            byte[] bytes = ByteBufUtil.getBytes(msg.content());
+            flattener.decode(bytes, 0, bytes.length, flattenedSink);
+        } else {
+            LOG.warn("[{}] unknown event type '{}'", ctx.channel().remoteAddress(), faceMessage.type);
         }
 
-        if (onMessageProcessed != null) {
-            onMessageProcessed.run();
+        messageProcessed(startNanos);
+    }
+
+    private String decode(ByteBuf content) throws IOException {
+        byte[] bytes;
+        int offset;
+        int length = content.readableBytes();
+        if (content.hasArray()) {
+            bytes = content.array();
+            offset = content.arrayOffset() + content.readerIndex();
+        } else {
+            if (frameBytes.length < length) {
+                frameBytes = new byte[Math.max(length, frameBytes.length * 2)];
+            }
+            content.getBytes(content.readerIndex(), frameBytes, 0, length);
+            bytes = frameBytes;
+            offset = 0;
+        }
+
+        String type = faceFrame != null
+                ? decoder.decode(bytes, offset, length, faceFrame)
+                : decoder.decode(bytes, offset, length, sink);
+        if (type != null && type != FaceEventDecoder.FACE_EVENT && isFlattened(type)) {
+            flattener.decode(bytes, offset, length, flattenedSink);
         }
+        return type;
+    }
+
+    /**
+     * Whether messages of this type go through the {@link JsonFlattener}.
+     */
+    private boolean isFlattened(String type) {
+        return flattener != null && !FaceEventDecoder.FACE_EVENT.equals(type) && flattener.handles(type);
+    }
+
+    private void messageProcessed(long startNanos) {
+        metrics.frameProcessing.recordNanos(System.nanoTime() - startNanos);
     }
 
     private void handleFaceEvent(FaceMessage.FaceMessageData data) {
-        if (data.faces.size() > 0) {
+        if (data == null || data.faces == null || data.faces.isEmpty()) {
+            return;
+        }
+
+        if (faceDispatcher != null) {
+            faceFrame.clear();
+            faceFrame.timetag = frameClock.toTimetag(data.timestamp);
+            for (int i = 0; i < data.faces.size(); i++) {
+                FaceMessage.Face face = data.faces.get(i);
+                if (face != null) {
+                    FaceBuffer buffer = faceFrame.addFace(face.id != null ? face.id : i);
+                    sendFace(face, buffer);
+                }
+            }
+            faceDispatcher.dispatch(faceFrame);
+        } else {
             // Process only the first face.
-            FaceMessage.Face face = data.faces.get(0);
-
-            face.emotions.forEach((k, v) -> {
-                sendOscMessage(v, "emotions", k);
-            });
-            face.expressions.forEach((k, v) -> {
-                sendOscMessage(v, "expressions", k);
-            });
-            face.appearance.forEach((k, v) -> {
-                sendOscMessage(v, "appearance", k);
-            });
-            if (face.measurements != null) {
-                sendOscMessage(face.measurements.interocularDistance, "measurements", "interocularDistance");
-                face.measurements.orientation.forEach((k, v) -> {
-                    sendOscMessage(v, "measurements", "orientation", k);
-                });
+            sink.beginFrame(frameClock.toTimetag(data.timestamp));
+            sendFace(data.faces.get(0), sink);
+            sink.endFrame();
+        }
+    }
+
+    private void sendFace(FaceMessage.Face face, OscSink sink) {
+        sendFloats(sink, emotions, face.emotions);
+        sendFloats(sink, expressions, face.expressions);
+        if (face.appearance != null) {
+            for (Map.Entry<String, String> e : face.appearance.entrySet()) {
+                if (e.getValue() != null) {
+                    sink.stringValue(appearance.child(e.getKey()), e.getValue());
+                }
+            }
+        }
+        if (face.measurements != null) {
+            if (face.measurements.interocularDistance != null) {
+                sink.floatValue(interocularDistance, face.measurements.interocularDistance);
+            }
+            sendFloats(sink, orientation, face.measurements.orientation);
+        }
+        if (face.featurePoints != null) {
+            for (Map.Entry<String, Map<String, Float>> e : face.featurePoints.entrySet()) {
+                sendFloats(sink, featurePoints.child(e.getKey()), e.getValue());
             }
-            face.featurePoints.forEach((k, v) -> {
-                v.forEach((axis, value) -> {
-                    sendOscMessage(value, "featurePoints", k, axis);
-                });
-            });
         }
     }
 
-    private void sendOscMessage(Object value, String... addressParts) {
-        if (value == null) {
+    private static void sendFloats(OscSink sink, OscAddress parent, Map<String, Float> values) {
+        if (values == null) {
             return;
         }
-
-        String address = "/" + String.join("/", addressParts);
-        OSCMessage msg = new OSCMessage(address, Collections.singletonList(value));
-
-        LOG.debug("sending '{}': {}", msg.getAddress(), msg.getArguments());
-        for (OSCPortOut sender : senders) {
-            try {
-                sender.send(msg);
-            } catch (IOException e) {
-                LOG.warn("error sending OSC", e);
+        for (Map.Entry<String, Float> e : values.entrySet()) {
+            if (e.getValue() != null) {
+                sink.floatValue(parent.child(e.getKey()), e.getValue());
             }
         }
     }
@@ -0,0 +1,30 @@
+package com.tinfig.wsosc;
+
+import java.util.Arrays;
+
+/**
+ * Maps face-relative addresses such as "/emotions/joy" to one face's addresses such as
+ * "/face/3/emotions/joy".  Each mapping is interned on first use and cached by address id.
+ */
+public class FaceNamespace {
+    private final OscAddressSpace addressSpace;
+    private final String prefix;
+    private OscAddress[] mapped = new OscAddress[256];
+
+    public FaceNamespace(OscAddressSpace addressSpace, int key) {
+        this.addressSpace = addressSpace;
+        this.prefix = "/face/" + key;
+    }
+
+    public OscAddress map(OscAddress address) {
+        int id = address.id;
+        if (id >= mapped.length) {
+            mapped = Arrays.copyOf(mapped, Math.max(id + 1, mapped.length * 2));
+        }
+        OscAddress result = mapped[id];
+        if (result == null) {
+            result = mapped[id] = addressSpace.resolve(prefix + address.path);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package com.tinfig.wsosc;
+
+/**
+ * Maps the client's frame timestamps onto wall clock time for OSC timetags.
+ * <p>
+ * Affectiva reports timestamps in seconds since the detector started, so the first
+ * timestamp seen is anchored to the local clock and later ones are offset from it.
+ * Timestamps that already look like epoch milliseconds (such as the test page's
+ * {@code Date.now()}) are used as-is.
+ */
+public class FrameClock {
+    private static final double EPOCH_MILLIS_THRESHOLD = 1e11;
+
+    private double anchorTimestamp = Double.NaN;
+    private long anchorMillis;
+
+    public long toTimetag(double timestamp) {
+        return OscEncoder.toTimetag(toMillis(timestamp));
+    }
+
+    public long toMillis(double timestamp) {
+        if (timestamp > EPOCH_MILLIS_THRESHOLD) {
+            return (long) timestamp;
+        }
+
+        // Re-anchor on the first frame and whenever the detector restarts
+        if (Double.isNaN(anchorTimestamp) || timestamp < anchorTimestamp) {
+            anchorTimestamp = timestamp;
+            anchorMillis = System.currentTimeMillis();
+        }
+        return anchorMillis + (long) ((timestamp - anchorTimestamp) * 1000);
+    }
+}
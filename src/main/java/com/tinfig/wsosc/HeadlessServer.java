@@ -0,0 +1,135 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the bridge without any UI, configured from a JSON file.  The file is reloaded whenever
+ * it changes, so touching it forces a reload.  Changes to the OSC targets alone are applied
+ * live; anything else restarts the bridge.
+ * <p>
+ * Nothing here may touch Swing or AWT, so none of it gets loaded on a headless machine.
+ */
+public class HeadlessServer {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(HeadlessServer.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File configFile;
+    private final Metrics metrics = new Metrics();
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private volatile Config config;
+    private volatile BridgeThread bridgeThread;
+
+    public HeadlessServer(File configFile) {
+        this.configFile = configFile.getAbsoluteFile();
+    }
+
+    public void run() throws IOException, InterruptedException {
+        config = loadConfig();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "HeadlessServer shutdown"));
+        startBridgeThread();
+        watchConfigFile();
+    }
+
+    private Config loadConfig() throws IOException {
+        LOG.info("Loading configuration from {}", configFile);
+        Config config = objectMapper.readValue(configFile, Config.class);
+        config.validate();
+        return config;
+    }
+
+    private void reload() {
+        Config previous = config;
+        try {
+            config = loadConfig();
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Not reloading, invalid configuration in {}", configFile, e);
+            return;
+        }
+        BridgeThread bridgeThread = this.bridgeThread;
+        if (bridgeThread == null) {
+            return;
+        }
+        if (onlyTargetsChanged(previous, config) && bridgeThread.updateTargets(config.oscTargets)) {
+            return;
+        }
+        // The bridge thread restarts itself with the new configuration when it stops
+        bridgeThread.shutdownBridge();
+    }
+
+    /**
+     * Whether two configurations differ in nothing but their OSC targets, which can be swapped
+     * without restarting the bridge.
+     */
+    private boolean onlyTargetsChanged(Config a, Config b) {
+        ObjectNode treeA = objectMapper.valueToTree(a);
+        ObjectNode treeB = objectMapper.valueToTree(b);
+        treeA.remove("oscTargets");
+        treeB.remove("oscTargets");
+        return treeA.equals(treeB);
+    }
+
+    private void stop() {
+        stopping.set(true);
+        BridgeThread bridgeThread = this.bridgeThread;
+        if (bridgeThread != null) {
+            bridgeThread.shutdownBridge();
+        }
+    }
+
+    private void startBridgeThread() {
+        bridgeThread = new BridgeThread(config, metrics, this::onBridgeThreadShutdown, LOG::info);
+        bridgeThread.start();
+    }
+
+    private void onBridgeThreadShutdown() {
+        boolean crashed = bridgeThread.isCrashed();
+        bridgeThread = null;
+        if (!stopping.get()) {
+            if (crashed) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            startBridgeThread();
+        }
+    }
+
+    private void watchConfigFile() throws IOException, InterruptedException {
+        Path file = configFile.toPath();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            file.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!stopping.get()) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    LOG.info("{} changed", configFile);
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+}
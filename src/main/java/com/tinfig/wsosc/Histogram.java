@@ -0,0 +1,106 @@
+package com.tinfig.wsosc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-bucket latency histogram that can be recorded from any thread without locking or
+ * allocating, and rendered as a Prometheus histogram.
+ */
+public class Histogram {
+    /**
+     * Upper bounds of the buckets in microseconds; anything larger goes in a final +Inf bucket.
+     */
+    private static final long[] BOUNDS_MICROS = {
+            10, 25, 50, 100, 250, 500,
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sumNanos.add(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * A copy of the bucket counts, to estimate quantiles over an interval with
+     * {@link #quantileNanosSince}.
+     */
+    public long[] counts() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Estimates a quantile (0 to 1) in nanoseconds as the upper bound of the bucket it falls in,
+     * over everything recorded so far.
+     */
+    public long quantileNanos(double quantile) {
+        return quantileNanosSince(null, counts(), quantile);
+    }
+
+    /**
+     * Estimates a quantile like {@link #quantileNanos}, over only what was recorded between two
+     * copies taken with {@link #counts}.
+     *
+     * @param earlier the earlier copy, or null to count everything in {@code later}
+     */
+    public static long quantileNanosSince(long[] earlier, long[] later, double quantile) {
+        long total = 0;
+        for (int i = 0; i < later.length; i++) {
+            total += later[i] - (earlier != null ? earlier[i] : 0);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            seen += later[i] - (earlier != null ? earlier[i] : 0);
+            if (seen >= rank) {
+                return BOUNDS_MICROS[i] * 1000;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Appends the histogram in the Prometheus text format, with times in seconds.
+     *
+     * @param labels extra labels such as {@code target="host:1234"}, or empty
+     */
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            cumulative += counts.get(i);
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(BOUNDS_MICROS[i] / 1e6).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(BOUNDS_MICROS.length);
+        out.append(name).append("_bucket{").append(labels).append(separator)
+                .append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+}
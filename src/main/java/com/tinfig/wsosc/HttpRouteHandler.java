@@ -0,0 +1,72 @@
+package com.tinfig.wsosc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.function.Supplier;
+
+/**
+ * Answers GET requests for one path with a generated text body, and passes everything else
+ * (such as the WebSocket handshake) along the pipeline.
+ */
+public class HttpRouteHandler extends ChannelInboundHandlerAdapter {
+    private final String path;
+    private final String contentType;
+    private final Supplier<String> body;
+
+    public HttpRouteHandler(String path, String contentType, Supplier<String> body) {
+        this.path = path;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullHttpRequest) || !matches((FullHttpRequest) msg)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        FullHttpRequest request = (FullHttpRequest) msg;
+        try {
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+            FullHttpResponse response;
+            if (request.method() == HttpMethod.GET) {
+                ByteBuf content = Unpooled.copiedBuffer(body.get(), CharsetUtil.UTF_8);
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+            } else {
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            }
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            HttpUtil.setKeepAlive(response, keepAlive);
+
+            if (keepAlive) {
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    private boolean matches(FullHttpRequest request) {
+        String uri = request.uri();
+        int query = uri.indexOf('?');
+        return (query < 0 ? uri : uri.substring(0, query)).equals(path);
+    }
+}
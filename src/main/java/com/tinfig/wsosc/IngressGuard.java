@@ -0,0 +1,145 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protects the bridge from clients that send faster than it can forward, one per connection
+ * in front of {@link FaceMessageHandler}.
+ * <ul>
+ * <li>Reading stops while any target's send queue is fuller than
+ * {@link Config#egressPauseWatermark}, and resumes once it has drained to half of that, so
+ * TCP pushes back on the clients instead of the queues overflowing.</li>
+ * <li>With {@link Config#keepNewestFrame}, only the last frame of each read is passed on, so
+ * a client that got ahead is caught up instead of being processed late.</li>
+ * <li>With {@link Config#maxFramesPerSecond}, frames beyond the connection's quota are dropped,
+ * so one flooding client can't take the event loop from the others.</li>
+ * </ul>
+ * Binary dictionary frames are never dropped, since the values frames after them depend on them.
+ */
+public class IngressGuard extends ChannelInboundHandlerAdapter {
+    private static final long RESUME_CHECK_MICROS = 500;
+
+    private final OscEgress egress;
+    private final Metrics metrics;
+    private final double pauseWatermark;
+    private final boolean keepNewest;
+    private final long nanosPerFrame;
+    private final long burstNanos;
+
+    // Generic cell rate algorithm: when the next frame is due if the client keeps to its quota
+    private long dueNanos;
+    private WebSocketFrame newest;
+    private boolean paused;
+
+    public IngressGuard(Config config, OscEgress egress, Metrics metrics) {
+        this.egress = egress;
+        this.metrics = metrics;
+        this.pauseWatermark = config.egressPauseWatermark;
+        this.keepNewest = config.keepNewestFrame;
+        this.nanosPerFrame = config.maxFramesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / config.maxFramesPerSecond : 0;
+        // Allow up to a second's worth of frames in a burst
+        this.burstNanos = TimeUnit.SECONDS.toNanos(1) - nanosPerFrame;
+        this.dueNanos = System.nanoTime();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof TextWebSocketFrame) && !(msg instanceof BinaryWebSocketFrame)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        WebSocketFrame frame = (WebSocketFrame) msg;
+        if (isDictionary(frame)) {
+            // Values decoded before it still need the old dictionary
+            forwardNewest(ctx);
+            ctx.fireChannelRead(frame);
+        } else if (keepNewest) {
+            if (newest != null) {
+                newest.release();
+                metrics.framesSuperseded.increment();
+            }
+            newest = frame;
+        } else {
+            forward(ctx, frame);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        forwardNewest(ctx);
+        if (!paused && pauseWatermark > 0 && pauseWatermark < 1 && egress.isQueueAbove(pauseWatermark)) {
+            paused = true;
+            metrics.readPauses.increment();
+            ctx.channel().config().setAutoRead(false);
+            scheduleResume(ctx);
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseNewest();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseNewest();
+    }
+
+    private void forwardNewest(ChannelHandlerContext ctx) {
+        if (newest != null) {
+            WebSocketFrame frame = newest;
+            newest = null;
+            forward(ctx, frame);
+        }
+    }
+
+    private void forward(ChannelHandlerContext ctx, WebSocketFrame frame) {
+        if (nanosPerFrame > 0) {
+            long now = System.nanoTime();
+            if (dueNanos - now < 0) {
+                dueNanos = now;
+            } else if (dueNanos - now > burstNanos) {
+                frame.release();
+                metrics.framesThrottled.increment();
+                return;
+            }
+            dueNanos += nanosPerFrame;
+        }
+        ctx.fireChannelRead(frame);
+    }
+
+    private void scheduleResume(ChannelHandlerContext ctx) {
+        ctx.executor().schedule(() -> {
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+            if (egress.isQueueAbove(pauseWatermark / 2)) {
+                scheduleResume(ctx);
+            } else {
+                paused = false;
+                ctx.channel().config().setAutoRead(true);
+            }
+        }, RESUME_CHECK_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    private void releaseNewest() {
+        if (newest != null) {
+            newest.release();
+            newest = null;
+        }
+    }
+
+    private static boolean isDictionary(WebSocketFrame frame) {
+        return frame instanceof BinaryWebSocketFrame
+                && frame.content().isReadable()
+                && frame.content().getUnsignedByte(frame.content().readerIndex()) == BinaryFaceDecoder.DICTIONARY;
+    }
+}
@@ -0,0 +1,279 @@
+package com.tinfig.wsosc;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Smooths out bursty delivery by holding each frame until a fixed delay after the client
+ * captured it, so frames leave at the cadence the camera produced them.
+ * <p>
+ * The offset between the client's clock and ours is taken as the smallest transit time (our
+ * arrival time minus the frame's timetag) over the last {@link #WINDOW} frames; anything a frame
+ * took beyond that is jitter, which the buffer absorbs.  Frames are queued by play-out time and
+ * released by one scheduler thread shared by every buffer, which is the only thread that writes
+ * to their next sinks, so the sinks must not block.  Frames without a timetag are passed on as
+ * soon as possible, in order.
+ * <p>
+ * With a timetag lead, frames are released that much early, timetagged with their play-out
+ * time, so bundle receivers can schedule them exactly.
+ */
+public class JitterBuffer implements OscSink {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(JitterBuffer.class);
+
+    /**
+     * Frames over which the minimum transit time is taken, about two seconds at 30 fps.
+     */
+    static final int WINDOW = 64;
+    /**
+     * A frame this much slower than the minimum means the client's clock jumped.
+     */
+    private static final long CLOCK_JUMP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ScheduledExecutorService RELEASER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "JitterBuffer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final OscSink next;
+    private final Metrics metrics;
+    private final long delayNanos;
+    private final long lateNanos;
+    private final long leadNanos;
+    private final int depth;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Frame> queue;
+    private final ArrayDeque<Frame> pool = new ArrayDeque<>();
+    // The pending release, if any; there is at most one per buffer
+    private ScheduledFuture<?> release;
+    private boolean closed;
+    private long sequence;
+
+    // Recording side, only touched by the caller
+    private final long[] transits = new long[WINDOW];
+    private int transitCount;
+    private int transitNext;
+    private long baseline;
+    private long lastPlayoutNanos = Long.MIN_VALUE;
+    private Frame recording;
+
+    public JitterBuffer(OscSink next, Config config, Metrics metrics) {
+        this.next = next;
+        this.metrics = metrics;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(config.jitterBufferMillis);
+        this.lateNanos = TimeUnit.MILLISECONDS.toNanos(config.jitterLateMillis);
+        this.leadNanos = TimeUnit.MILLISECONDS.toNanos(config.jitterTimetagLeadMillis);
+        this.depth = Math.max(1, config.jitterBufferDepth);
+        this.queue = new PriorityQueue<>(depth + 1, (a, b) -> a.playoutNanos != b.playoutNanos
+                ? Long.compare(a.playoutNanos, b.playoutNanos)
+                : Long.compare(a.sequence, b.sequence));
+    }
+
+    @Override
+    public void beginFrame(long timetag) {
+        lock.lock();
+        try {
+            recording = pool.isEmpty() ? new Frame() : pool.poll();
+        } finally {
+            lock.unlock();
+        }
+        recording.clear(timetag);
+    }
+
+    @Override
+    public void floatValue(OscAddress address, float value) {
+        int i = recording.append(address);
+        recording.floats[i] = value;
+    }
+
+    @Override
+    public void stringValue(OscAddress address, String value) {
+        int i = recording.append(address);
+        recording.strings[i] = value;
+    }
+
+    @Override
+    public void endFrame() {
+        Frame frame = recording;
+        recording = null;
+        long now = System.nanoTime();
+        if (frame.timetag == OscEncoder.TIMETAG_IMMEDIATELY) {
+            frame.playoutNanos = now;
+        } else {
+            long jitter = jitter(now - OscEncoder.toEpochNanos(frame.timetag));
+            metrics.frameJitter.recordNanos(jitter);
+            if (jitter > delayNanos + lateNanos) {
+                metrics.jitterFramesLate.increment();
+                recycle(frame);
+                return;
+            }
+            frame.playoutNanos = now - jitter + delayNanos;
+        }
+        // Never overtake a frame that is already queued
+        frame.playoutNanos = Math.max(frame.playoutNanos, lastPlayoutNanos);
+        lastPlayoutNanos = frame.playoutNanos;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (queue.size() >= depth) {
+                pool.add(queue.poll());
+                metrics.jitterFramesOverflowed.increment();
+            }
+            frame.sequence = sequence++;
+            queue.add(frame);
+            // Play-out times never go backwards, so a pending release is never too late
+            if (release == null) {
+                scheduleRelease(queue.peek());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancels the pending release and discards any frames still waiting.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            if (release != null) {
+                release.cancel(false);
+                release = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a transit time to the window and returns how much longer than the minimum it took.
+     */
+    private long jitter(long transit) {
+        if (transitCount > 0 && transit - baseline > CLOCK_JUMP_NANOS) {
+            transitCount = 0;
+        }
+        transits[transitNext] = transit;
+        transitNext = (transitNext + 1) % WINDOW;
+        transitCount = Math.min(transitCount + 1, WINDOW);
+
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < transitCount; i++) {
+            min = Math.min(min, transits[(transitNext - 1 - i + WINDOW) % WINDOW]);
+        }
+        baseline = min;
+        return transit - baseline;
+    }
+
+    /**
+     * Schedules the release of the frame at the head of the queue.  Called with the lock held.
+     */
+    private void scheduleRelease(Frame head) {
+        long wait = head.playoutNanos - leadNanos - System.nanoTime();
+        release = RELEASER.schedule(this::release, Math.max(0, wait), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends every frame that is due, then schedules the next one.  Runs on the shared thread.
+     */
+    private void release() {
+        lock.lock();
+        try {
+            // The release stays pending while it runs, so endFrame doesn't schedule another
+            while (!closed) {
+                Frame frame = queue.peek();
+                if (frame == null) {
+                    release = null;
+                    return;
+                }
+                if (frame.playoutNanos - leadNanos - System.nanoTime() > 0) {
+                    scheduleRelease(frame);
+                    return;
+                }
+                queue.poll();
+                lock.unlock();
+                try {
+                    send(frame);
+                } finally {
+                    lock.lock();
+                }
+                pool.add(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void send(Frame frame) {
+        long timetag = frame.timetag;
+        if (leadNanos > 0 && timetag != OscEncoder.TIMETAG_IMMEDIATELY) {
+            timetag = OscEncoder.toTimetag(System.currentTimeMillis()
+                    + TimeUnit.NANOSECONDS.toMillis(frame.playoutNanos - System.nanoTime()));
+        }
+        try {
+            next.beginFrame(timetag);
+            for (int i = 0; i < frame.count; i++) {
+                if (frame.strings[i] != null) {
+                    next.stringValue(frame.addresses[i], frame.strings[i]);
+                } else {
+                    next.floatValue(frame.addresses[i], frame.floats[i]);
+                }
+            }
+            next.endFrame();
+        } catch (RuntimeException e) {
+            LOG.warn("error releasing a frame from the jitter buffer", e);
+        }
+    }
+
+    private void recycle(Frame frame) {
+        lock.lock();
+        try {
+            pool.add(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One frame's values, reused once released.
+     */
+    private static class Frame {
+        long timetag;
+        long playoutNanos;
+        long sequence;
+        OscAddress[] addresses = new OscAddress[128];
+        float[] floats = new float[128];
+        String[] strings = new String[128];
+        int count;
+
+        void clear(long timetag) {
+            this.timetag = timetag;
+            Arrays.fill(strings, 0, count, null);
+            count = 0;
+        }
+
+        int append(OscAddress address) {
+            if (count == addresses.length) {
+                int length = count * 2;
+                addresses = Arrays.copyOf(addresses, length);
+                floats = Arrays.copyOf(floats, length);
+                strings = Arrays.copyOf(strings, length);
+            }
+            addresses[count] = address;
+            return count++;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.tinfig.wsosc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the records written by {@link JournalWriter}, segment by segment in order, keeping
+ * track of which recording session they belong to.
+ */
+public class JournalReader {
+    private final List<File> segments;
+    private int nextSegment;
+    private ByteBuffer segment;
+
+    // The session the current record belongs to, 0 until a session record is read
+    int session;
+    long sessionEpochMillis;
+
+    // The current record
+    int kind;
+    int connectionId;
+    long nanos;
+    /**
+     * The current frame's payload, a view into the mapped segment.
+     */
+    ByteBuffer payload;
+
+    /**
+     * @param journal a journal directory, or a single segment file
+     */
+    public JournalReader(File journal) throws IOException {
+        if (journal.isDirectory()) {
+            File[] files = journal.listFiles((dir, name) -> name.endsWith(JournalWriter.SEGMENT_SUFFIX));
+            segments = files != null ? new ArrayList<>(Arrays.asList(files)) : new ArrayList<>();
+            segments.sort(null);
+        } else {
+            segments = new ArrayList<>();
+            segments.add(journal);
+        }
+        if (segments.isEmpty()) {
+            throw new IOException("no journal segments in " + journal);
+        }
+    }
+
+    /**
+     * Moves to the next record, returning false at the end of the journal.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment != null && segment.remaining() >= JournalWriter.RECORD_HEADER_SIZE) {
+                kind = segment.getInt();
+                if (kind != JournalWriter.END) {
+                    connectionId = segment.getInt();
+                    nanos = segment.getLong();
+                    int length = segment.getInt();
+                    if (length < 0 || length > segment.remaining()) {
+                        throw new IOException("corrupt journal record in " + segments.get(nextSegment - 1));
+                    }
+                    payload = segment.slice();
+                    payload.limit(length);
+                    segment.position(segment.position() + length);
+                    if (kind == JournalWriter.SESSION) {
+                        if (length < 8) {
+                            throw new IOException("corrupt journal session record in " + segments.get(nextSegment - 1));
+                        }
+                        session = connectionId;
+                        sessionEpochMillis = payload.getLong(0);
+                    }
+                    return true;
+                }
+            }
+            if (nextSegment == segments.size()) {
+                return false;
+            }
+            segment = map(segments.get(nextSegment++));
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.remaining() < JournalWriter.SEGMENT_HEADER_SIZE || buf.getInt() != JournalWriter.MAGIC) {
+                throw new IOException(file + " isn't a journal segment");
+            }
+            int version = buf.getInt();
+            if (version != JournalWriter.VERSION) {
+                throw new IOException(file + " is journal version " + version + ", expected " + JournalWriter.VERSION);
+            }
+            return buf;
+        }
+    }
+}
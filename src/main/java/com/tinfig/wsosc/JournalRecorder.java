@@ -0,0 +1,36 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+/**
+ * Copies each inbound text and binary frame on one connection into a {@link JournalWriter} before passing
+ * it on unchanged.
+ */
+public class JournalRecorder extends ChannelInboundHandlerAdapter {
+    private final JournalWriter journal;
+    private final int connectionId;
+
+    public JournalRecorder(JournalWriter journal) {
+        this.journal = journal;
+        this.connectionId = journal.newConnectionId();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof TextWebSocketFrame) {
+            journal.frame(connectionId, System.nanoTime(), ((TextWebSocketFrame) msg).content());
+        } else if (msg instanceof BinaryWebSocketFrame) {
+            journal.binaryFrame(connectionId, System.nanoTime(), ((BinaryWebSocketFrame) msg).content());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        journal.connectionClosed(connectionId, System.nanoTime());
+        ctx.fireChannelInactive();
+    }
+}
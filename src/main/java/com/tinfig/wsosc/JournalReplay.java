@@ -0,0 +1,167 @@
+package com.tinfig.wsosc;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a recorded journal back through {@link FaceMessageHandler} and out to the configured OSC
+ * targets, one embedded channel per recorded connection.
+ * <p>
+ * Frames are released at their recorded spacing divided by the speed, or back to back when the
+ * speed is zero, which makes a full-speed replay a throughput benchmark of the whole pipeline.
+ * <p>
+ * A journal may hold several recording sessions.  Their clocks and connection ids are
+ * unrelated, so each session's connections get their own channels, those still open are
+ * closed when the next session starts, and the replay clock starts over at its first record.
+ * <p>
+ * At the end the replay waits, for up to {@link #DRAIN_MILLIS}, for the targets' queues to
+ * empty, so the last frames aren't cut off when the senders stop.
+ */
+public class JournalReplay {
+    static final long DRAIN_MILLIS = 5000;
+
+    private final Config config;
+    private final File journal;
+    private final double speed;
+    private final Logger logger;
+    private final Metrics metrics = new Metrics();
+
+    public JournalReplay(Config config, File journal, double speed, Logger logger) {
+        this.config = config;
+        this.journal = journal;
+        this.speed = speed;
+        this.logger = logger;
+    }
+
+    public void run() throws IOException {
+        JournalReader reader = new JournalReader(journal);
+        OscAddressSpace addressSpace = new OscAddressSpace();
+        addressSpace.setLimit(config.maxOscAddresses);
+        OscEgress egress = new OscEgress(config.oscTargets, addressSpace, config.egressQueueSize, metrics, logger);
+        OscCoalescer coalescer = config.flushRateHz > 0 ? new OscCoalescer(egress, addressSpace, config.flushRateHz) : null;
+        Map<Long, EmbeddedChannel> channels = new HashMap<>();
+
+        logger.log("Replaying " + journal + (speed > 0 ? " at " + speed + "x" : " as fast as possible")
+                + " to " + config.oscTargets.size() + " targets");
+        // Hold the senders open across recorded reconnects
+        egress.retain();
+        try {
+            if (coalescer != null) {
+                coalescer.start();
+            }
+
+            boolean started = false;
+            boolean anchored = false;
+            long firstNanos = 0;
+            long anchorNanos = 0;
+            long startNanos = System.nanoTime();
+            long frames = 0;
+            while (reader.next()) {
+                if (!started) {
+                    started = true;
+                    startNanos = System.nanoTime();
+                }
+                if (reader.kind == JournalWriter.SESSION) {
+                    logger.log("Session " + reader.session + " recorded " + new Date(reader.sessionEpochMillis));
+                    // Whatever the previous session left open ended with it
+                    for (EmbeddedChannel channel : channels.values()) {
+                        channel.finishAndReleaseAll();
+                    }
+                    channels.clear();
+                    anchored = false;
+                    continue;
+                }
+                if (!anchored) {
+                    anchored = true;
+                    firstNanos = reader.nanos;
+                    anchorNanos = System.nanoTime();
+                }
+                if (speed > 0) {
+                    waitUntil(anchorNanos + (long) ((reader.nanos - firstNanos) / speed));
+                }
+
+                long key = channelKey(reader.session, reader.connectionId);
+                if (reader.kind == JournalWriter.CLOSED) {
+                    EmbeddedChannel channel = channels.remove(key);
+                    if (channel != null) {
+                        channel.finishAndReleaseAll();
+                    }
+                } else if (reader.kind == JournalWriter.FRAME || reader.kind == JournalWriter.BINARY_FRAME) {
+                    EmbeddedChannel channel = channels.get(key);
+                    if (channel == null) {
+                        channel = new EmbeddedChannel(new FaceMessageHandler(config, egress, addressSpace,
+                                coalescer != null ? coalescer::newSink : egress::newSession, metrics));
+                        channels.put(key, channel);
+                    }
+                    channel.writeInbound(reader.kind == JournalWriter.FRAME
+                            ? new TextWebSocketFrame(Unpooled.wrappedBuffer(reader.payload))
+                            : new BinaryWebSocketFrame(Unpooled.wrappedBuffer(reader.payload)));
+                    frames++;
+                }
+            }
+
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (!drain(egress)) {
+                logger.log("Gave up waiting for the OSC targets to send everything after " + DRAIN_MILLIS + " ms");
+            }
+            long dropped = 0;
+            for (TargetSender sender : egress.getSenders()) {
+                dropped += sender.getDropped();
+            }
+            logger.log(String.format("Replayed %d frames in %.3f s, %.0f frames/s, p99 processing %.3f ms, %d packets dropped",
+                    frames, elapsedNanos / 1e9, frames / (elapsedNanos / 1e9),
+                    metrics.frameProcessing.quantileNanos(0.99) / 1e6, dropped));
+        } finally {
+            for (EmbeddedChannel channel : channels.values()) {
+                channel.finishAndReleaseAll();
+            }
+            if (coalescer != null) {
+                coalescer.stop();
+            }
+            egress.close();
+        }
+    }
+
+    /**
+     * Waits for every sender to send what it has queued.
+     *
+     * @return false if some were still busy after {@link #DRAIN_MILLIS}
+     */
+    private static boolean drain(OscEgress egress) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+        for (TargetSender sender : egress.getSenders()) {
+            while (!sender.isDrained()) {
+                if (System.nanoTime() - deadlineNanos > 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+        return true;
+    }
+
+    private static long channelKey(int session, int connectionId) {
+        return (long) session << 32 | connectionId & 0xffffffffL;
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            if (remaining > TimeUnit.MILLISECONDS.toNanos(1)) {
+                LockSupport.parkNanos(remaining - TimeUnit.MILLISECONDS.toNanos(1));
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
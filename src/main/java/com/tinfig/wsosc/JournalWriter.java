@@ -0,0 +1,212 @@
+package com.tinfig.wsosc;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Appends inbound WebSocket frames to a journal of fixed-size memory-mapped segment files, so
+ * a session can be replayed later with {@link JournalReplay}.
+ * <p>
+ * Appending is a copy into mapped memory; the OS writes pages back in its own time.  Segments
+ * are created and flushed on a background thread, one segment ahead, so the event loop never
+ * waits on the file system unless it fills a segment faster than the next one can be mapped.
+ * <p>
+ * Each segment starts with {@link #MAGIC} and {@link #VERSION}, followed by records of
+ * kind, connection id, receive time from {@link System#nanoTime()}, payload length and
+ * payload.  The zero-filled remainder of a segment reads as kind {@link #END}.
+ * <p>
+ * Several runs may record to one directory, each carrying on from the last segment.  A run's
+ * first record is a {@link #SESSION} record: its connection id field holds the session id,
+ * which is the run's first segment number, and its payload the wall-clock start time in epoch
+ * milliseconds.  Receive times and connection ids only mean something within their session.
+ */
+public class JournalWriter implements AutoCloseable {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(JournalWriter.class);
+
+    static final int MAGIC = 0x57534a4c; // "WSJL"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 20;
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    static final int END = 0;
+    static final int FRAME = 1;
+    static final int CLOSED = 2;
+    static final int BINARY_FRAME = 3;
+    static final int SESSION = 4;
+
+    private final File directory;
+    private final int segmentSize;
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "JournalWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private Future<MappedByteBuffer> nextSegment;
+    private long dropped;
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * @param segmentSize bytes per segment file; it is mapped whole, so at most 2 GB
+     */
+    public JournalWriter(File directory, long segmentSize) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("journal segment size " + segmentSize + " is out of range");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = (int) segmentSize;
+        this.segmentIndex = lastSegmentIndex(directory);
+        this.segment = createSegment(++segmentIndex);
+        final int following = segmentIndex + 1;
+        this.nextSegment = background.submit(() -> createSegment(following));
+        segment.putInt(SESSION).putInt(segmentIndex).putLong(System.nanoTime()).putInt(8)
+                .putLong(System.currentTimeMillis());
+        LOG.info("Recording to {}", segmentFile(segmentIndex));
+    }
+
+    /**
+     * Numbers connections so replay can keep each one's frames in its own handler.
+     */
+    public int newConnectionId() {
+        return connectionIds.incrementAndGet();
+    }
+
+    public void frame(int connectionId, long receiveNanos, ByteBuf content) {
+        append(FRAME, connectionId, receiveNanos, content);
+    }
+
+    public void binaryFrame(int connectionId, long receiveNanos, ByteBuf content) {
+        append(BINARY_FRAME, connectionId, receiveNanos, content);
+    }
+
+    public void connectionClosed(int connectionId, long nanos) {
+        append(CLOSED, connectionId, nanos, null);
+    }
+
+    private synchronized void append(int kind, int connectionId, long nanos, ByteBuf content) {
+        if (closed || failed) {
+            return;
+        }
+        int length = content != null ? content.readableBytes() : 0;
+        int size = RECORD_HEADER_SIZE + length;
+        if (size > segmentSize - SEGMENT_HEADER_SIZE) {
+            if (dropped++ == 0) {
+                LOG.warn("Not journaling a {} byte frame, larger than a segment", length);
+            }
+            return;
+        }
+        if (segment.remaining() < size && !roll()) {
+            return;
+        }
+
+        segment.putInt(kind).putInt(connectionId).putLong(nanos).putInt(length);
+        if (length > 0) {
+            // getBytes fills the destination up to its limit
+            segment.limit(segment.position() + length);
+            content.getBytes(content.readerIndex(), segment);
+            segment.limit(segment.capacity());
+        }
+    }
+
+    private boolean roll() {
+        final MappedByteBuffer full = segment;
+        try {
+            segment = nextSegment.get();
+        } catch (ExecutionException e) {
+            LOG.error("Can't create journal segment, recording stopped", e.getCause());
+            failed = true;
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        segmentIndex++;
+        final int following = segmentIndex + 1;
+        nextSegment = background.submit(() -> createSegment(following));
+        background.execute(full::force);
+        return true;
+    }
+
+    private MappedByteBuffer createSegment(int index) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw")) {
+            file.setLength(segmentSize);
+            // The mapping stays valid after the file is closed
+            MappedByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buf.putInt(MAGIC).putInt(VERSION);
+            return buf;
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, String.format("%08d%s", index, SEGMENT_SUFFIX));
+    }
+
+    private static int lastSegmentIndex(File directory) {
+        int last = 0;
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    last = Math.max(last, Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public void close() {
+        MappedByteBuffer last;
+        Future<MappedByteBuffer> unused;
+        File unusedFile;
+        long tooLarge;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = segment;
+            unused = nextSegment;
+            unusedFile = segmentFile(segmentIndex + 1);
+            tooLarge = dropped;
+        }
+        background.execute(last::force);
+        // The segment made ahead holds nothing, so it goes and the next run takes its number
+        background.execute(() -> {
+            try {
+                unused.get();
+            } catch (ExecutionException | InterruptedException e) {
+                // Deleted below if it was made at all
+            }
+            if (unusedFile.exists() && !unusedFile.delete()) {
+                LOG.warn("Can't delete unused journal segment {}", unusedFile);
+            }
+        });
+        background.shutdown();
+        if (tooLarge > 0) {
+            LOG.info("{} frames were too large to journal", tooLarge);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bridges any JSON message of the form {@code {"type": ..., "data": {...}}} by flattening its
+ * data into one OSC value per leaf, addressed by the leaf's key path, as set up by
+ * {@link MessageMapping}s.
+ * <p>
+ * Each message is parsed once into a list of leaf values while its shape, the keys and token
+ * types in order, is recorded and hashed into a fingerprint along the way.  The first message
+ * of each shape is parsed a second time to build its plan, the address of every leaf; later
+ * messages of that shape look the plan up by fingerprint, check that the shape really matches,
+ * and skip building paths altogether.
+ * <p>
+ * Numbers and booleans are sent as floats, strings as strings, and nulls are skipped.  Not
+ * thread safe; every connection gets its own flattener.
+ */
+public class JsonFlattener {
+    static final int MAX_LEAVES = 4096;
+    static final int MAX_PLANS = 256;
+    static final int MAX_TYPES = 64;
+    static final String ANY_TYPE = "*";
+
+    private static final byte NUMBER = 1;
+    private static final byte STRING = 2;
+    private static final byte NULL = 3;
+
+    // Recorded in the shape to mark structure
+    private static final byte OBJECT = 4;
+    private static final byte ARRAY = 5;
+    private static final byte FIELD = 6;
+    private static final byte END = 7;
+
+    private final JsonFactory factory;
+    private final OscAddressSpace addressSpace;
+    private final FrameClock frameClock;
+    private final Map<String, Mapping> mappings = new HashMap<>();
+    private final MessageMapping anyType;
+    private final AddressBudget budget;
+
+    // The leaves of the message being decoded
+    private byte[] kinds = new byte[64];
+    private double[] numbers = new double[64];
+    private String[] strings = new String[64];
+    private int leaves;
+
+    // The shape of the message being decoded, with the field names in order
+    private byte[] shape = new byte[128];
+    private int shapeLength;
+    private String[] names = new String[64];
+    private int nameCount;
+    private long fingerprint;
+
+    public JsonFlattener(JsonFactory factory, OscAddressSpace addressSpace, FrameClock frameClock, List<MessageMapping> mappings) {
+        this(factory, addressSpace, frameClock, mappings, new AddressBudget(Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param budget pays for the addresses of new key paths and message types; a message that
+     *               overspends it is dropped before anything is sent
+     */
+    public JsonFlattener(JsonFactory factory, OscAddressSpace addressSpace, FrameClock frameClock, List<MessageMapping> mappings, AddressBudget budget) {
+        this.factory = factory;
+        this.addressSpace = addressSpace;
+        this.frameClock = frameClock;
+        this.budget = budget;
+        MessageMapping anyType = null;
+        for (MessageMapping mapping : mappings) {
+            if (ANY_TYPE.equals(mapping.type)) {
+                anyType = mapping;
+            } else if (mapping.type != null) {
+                this.mappings.put(mapping.type, new Mapping(mapping, mapping.type));
+            }
+        }
+        this.anyType = anyType;
+    }
+
+    /**
+     * Whether messages of this type are flattened.
+     */
+    public boolean handles(String type) {
+        return type != null && (anyType != null || mappings.containsKey(type));
+    }
+
+    /**
+     * Flattens one message into a frame on the sink.
+     *
+     * @return false if the message's type has no mapping, in which case nothing was sent
+     */
+    public boolean decode(byte[] buf, int offset, int length, OscSink sink) throws IOException {
+        leaves = 0;
+        shapeLength = 0;
+        nameCount = 0;
+        fingerprint = 0xcbf29ce484222325L;
+        String type = null;
+        boolean haveData = false;
+
+        try (JsonParser p = factory.createParser(buf, offset, length)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "expected a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("type".equals(name) && token == JsonToken.VALUE_STRING) {
+                    type = p.getText();
+                } else if ("data".equals(name) && token.isStructStart()) {
+                    scan(p, token);
+                    haveData = true;
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        Mapping mapping = mapping(type);
+        if (mapping == null) {
+            return false;
+        }
+        if (!haveData) {
+            return true;
+        }
+
+        Plan plan = mapping.plans.get(fingerprint, shape, shapeLength, names, nameCount);
+        if (plan == null) {
+            plan = buildPlan(buf, offset, length, mapping);
+            mapping.plans.put(plan);
+        }
+        send(plan, sink);
+        return true;
+    }
+
+    private Mapping mapping(String type) {
+        if (type == null) {
+            return null;
+        }
+        Mapping mapping = mappings.get(type);
+        if (mapping == null && anyType != null && mappings.size() < MAX_TYPES) {
+            mapping = new Mapping(anyType, type);
+            mappings.put(type, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Records the leaves below the current token and their shape.
+     */
+    private void scan(JsonParser p, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                addShape(OBJECT);
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    addName(p.getCurrentName());
+                    scan(p, p.nextToken());
+                }
+                addShape(END);
+                break;
+            case START_ARRAY:
+                addShape(ARRAY);
+                for (JsonToken element = p.nextToken(); element != JsonToken.END_ARRAY; element = p.nextToken()) {
+                    scan(p, element);
+                }
+                addShape(END);
+                break;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT: {
+                int leaf = addLeaf(p, NUMBER);
+                numbers[leaf] = p.getDoubleValue();
+                break;
+            }
+            case VALUE_TRUE:
+            case VALUE_FALSE: {
+                int leaf = addLeaf(p, NUMBER);
+                numbers[leaf] = token == JsonToken.VALUE_TRUE ? 1 : 0;
+                break;
+            }
+            case VALUE_STRING: {
+                int leaf = addLeaf(p, STRING);
+                strings[leaf] = p.getText();
+                break;
+            }
+            default:
+                addLeaf(p, NULL);
+                break;
+        }
+    }
+
+    /**
+     * Adds a leaf of the given kind and returns its index.
+     */
+    private int addLeaf(JsonParser p, byte kind) throws IOException {
+        if (leaves == MAX_LEAVES) {
+            throw new JsonParseException(p, "more than " + MAX_LEAVES + " values in one message");
+        }
+        if (leaves == kinds.length) {
+            kinds = Arrays.copyOf(kinds, leaves * 2);
+            numbers = Arrays.copyOf(numbers, leaves * 2);
+            strings = Arrays.copyOf(strings, leaves * 2);
+        }
+        kinds[leaves] = kind;
+        addShape(kind);
+        return leaves++;
+    }
+
+    private void addShape(byte token) {
+        if (shapeLength == shape.length) {
+            shape = Arrays.copyOf(shape, shapeLength * 2);
+        }
+        shape[shapeLength++] = token;
+        mix(token);
+    }
+
+    private void addName(String name) {
+        if (nameCount == names.length) {
+            names = Arrays.copyOf(names, nameCount * 2);
+        }
+        names[nameCount++] = name;
+        addShape(FIELD);
+        // Field names are interned by the parser, so their hash codes are cached
+        mix(name.hashCode());
+    }
+
+    private void mix(long value) {
+        fingerprint = (fingerprint ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Parses the message again to find the address of every leaf.  Only done once per shape.
+     */
+    private Plan buildPlan(byte[] buf, int offset, int length, Mapping mapping) throws IOException {
+        OscAddress[] addresses = new OscAddress[leaves];
+        int[] leaf = {0};
+        try (JsonParser p = factory.createParser(buf, offset, length)) {
+            p.nextToken();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if ("data".equals(name) && token.isStructStart()) {
+                    locate(p, token, mapping.prefix, addresses, leaf);
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        int timestampLeaf = -1;
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] == mapping.timestamp && kinds[i] == NUMBER) {
+                timestampLeaf = i;
+            }
+        }
+        return new Plan(fingerprint, Arrays.copyOf(shape, shapeLength), Arrays.copyOf(names, nameCount),
+                addresses, timestampLeaf);
+    }
+
+    private void locate(JsonParser p, JsonToken token, OscAddress parent, OscAddress[] addresses, int[] leaf) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    OscAddress child = parent.child(segment(p.getCurrentName()), budget);
+                    locate(p, p.nextToken(), child, addresses, leaf);
+                }
+                break;
+            case START_ARRAY: {
+                int index = 0;
+                for (JsonToken element = p.nextToken(); element != JsonToken.END_ARRAY; element = p.nextToken()) {
+                    locate(p, element, parent.child(Integer.toString(index++), budget), addresses, leaf);
+                }
+                break;
+            }
+            default:
+                addresses[leaf[0]++] = parent;
+                break;
+        }
+    }
+
+    private void send(Plan plan, OscSink sink) {
+        sink.beginFrame(plan.timestampLeaf >= 0
+                ? frameClock.toTimetag(numbers[plan.timestampLeaf])
+                : OscEncoder.TIMETAG_IMMEDIATELY);
+        OscAddress[] addresses = plan.addresses;
+        for (int i = 0; i < leaves; i++) {
+            if (i == plan.timestampLeaf) {
+                continue;
+            }
+            switch (kinds[i]) {
+                case NUMBER:
+                    sink.floatValue(addresses[i], (float) numbers[i]);
+                    break;
+                case STRING:
+                    sink.stringValue(addresses[i], strings[i]);
+                    strings[i] = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+        sink.endFrame();
+    }
+
+    /**
+     * Makes a JSON key usable as one OSC address part, replacing the characters OSC reserves.
+     */
+    static String segment(String key) {
+        if (key.isEmpty()) {
+            return "_";
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (" #*,/?[]{}".indexOf(key.charAt(i)) >= 0) {
+                StringBuilder clean = new StringBuilder(key);
+                for (int j = i; j < clean.length(); j++) {
+                    if (" #*,/?[]{}".indexOf(clean.charAt(j)) >= 0) {
+                        clean.setCharAt(j, '_');
+                    }
+                }
+                return clean.toString();
+            }
+        }
+        return key;
+    }
+
+    /**
+     * One message type's prefix, timestamp address and learned plans.
+     */
+    private class Mapping {
+        final OscAddress prefix;
+        final OscAddress timestamp;
+        final PlanCache plans = new PlanCache();
+
+        Mapping(MessageMapping mapping, String type) {
+            this.prefix = mapping.prefix != null
+                    ? addressSpace.resolve(mapping.prefix)
+                    : addressSpace.root().child(segment(type), budget);
+            OscAddress timestamp = null;
+            if (mapping.timestamp != null) {
+                timestamp = prefix;
+                for (String part : mapping.timestamp.split("/")) {
+                    if (!part.isEmpty()) {
+                        timestamp = timestamp.child(segment(part));
+                    }
+                }
+            }
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The address of each leaf of one message shape.
+     */
+    private static class Plan {
+        final long fingerprint;
+        final byte[] shape;
+        final String[] names;
+        final OscAddress[] addresses;
+        final int timestampLeaf;
+
+        Plan(long fingerprint, byte[] shape, String[] names, OscAddress[] addresses, int timestampLeaf) {
+            this.fingerprint = fingerprint;
+            this.shape = shape;
+            this.names = names;
+            this.addresses = addresses;
+            this.timestampLeaf = timestampLeaf;
+        }
+
+        /**
+         * Whether this is the plan for the given shape, and not just one whose fingerprint
+         * collides with it.
+         */
+        boolean matches(byte[] shape, int shapeLength, String[] names, int nameCount) {
+            if (this.shape.length != shapeLength || this.names.length != nameCount) {
+                return false;
+            }
+            for (int i = 0; i < shapeLength; i++) {
+                if (this.shape[i] != shape[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < nameCount; i++) {
+                if (!this.names[i].equals(names[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Open addressing by fingerprint, so a lookup doesn't box.  Cleared when full, since a
+     * source whose keys never repeat would otherwise grow it forever.
+     */
+    private static class PlanCache {
+        private final Plan[] slots = new Plan[MAX_PLANS * 2];
+        private int size;
+
+        Plan get(long fingerprint, byte[] shape, int shapeLength, String[] names, int nameCount) {
+            int mask = slots.length - 1;
+            for (int i = (int) (fingerprint ^ (fingerprint >>> 32)) & mask; slots[i] != null; i = (i + 1) & mask) {
+                Plan plan = slots[i];
+                if (plan.fingerprint == fingerprint && plan.matches(shape, shapeLength, names, nameCount)) {
+                    return plan;
+                }
+            }
+            return null;
+        }
+
+        void put(Plan plan) {
+            if (size == MAX_PLANS) {
+                Arrays.fill(slots, null);
+                size = 0;
+            }
+            int mask = slots.length - 1;
+            int i = (int) (plan.fingerprint ^ (plan.fingerprint >>> 32)) & mask;
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = plan;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * The last value sent to every OSC address, one slot per address id, so a full snapshot can
+ * be replayed to a target that missed them or served as JSON.
+ * <p>
+ * Writers never lock: slots are plain array stores, and only growing the arrays for a new
+ * address id is synchronized.  Readers see each slot's latest value or one a frame older,
+ * which is all a snapshot needs, and a value written while the arrays grow may be missed
+ * until its address is sent again.
+ */
+public class LastValueCache {
+    private static final byte FLOAT = 1;
+    private static final byte STRING = 2;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final OscAddressSpace addressSpace;
+    private volatile Slots slots = new Slots(256);
+
+    public LastValueCache(OscAddressSpace addressSpace) {
+        this.addressSpace = addressSpace;
+    }
+
+    public void putFloat(OscAddress address, float value) {
+        Slots slots = slots(address.id);
+        slots.floats[address.id] = value;
+        slots.kinds[address.id] = FLOAT;
+    }
+
+    public void putString(OscAddress address, String value) {
+        Slots slots = slots(address.id);
+        slots.strings[address.id] = value;
+        slots.kinds[address.id] = STRING;
+    }
+
+    /**
+     * One more than the largest address id that may hold a value.
+     */
+    public int size() {
+        return Math.min(slots.kinds.length, addressSpace.size());
+    }
+
+    /**
+     * Sends the values of address ids from {@code from} up to {@code to} as one frame.
+     *
+     * @return the number of values sent
+     */
+    public int replay(OscSink sink, int from, int to) {
+        Slots slots = this.slots;
+        to = Math.min(to, slots.kinds.length);
+        int count = 0;
+        sink.beginFrame(OscEncoder.TIMETAG_IMMEDIATELY);
+        for (int id = from; id < to; id++) {
+            switch (slots.kinds[id]) {
+                case FLOAT:
+                    sink.floatValue(addressSpace.get(id), slots.floats[id]);
+                    count++;
+                    break;
+                case STRING:
+                    sink.stringValue(addressSpace.get(id), slots.strings[id]);
+                    count++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        sink.endFrame();
+        return count;
+    }
+
+    /**
+     * Every cached value as a JSON object keyed by address.
+     */
+    public String toJson() {
+        Slots slots = this.slots;
+        int size = Math.min(slots.kinds.length, addressSpace.size());
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = jsonFactory.createGenerator(out)) {
+            json.writeStartObject();
+            for (int id = 0; id < size; id++) {
+                switch (slots.kinds[id]) {
+                    case FLOAT:
+                        json.writeNumberField(addressSpace.get(id).path, slots.floats[id]);
+                        break;
+                    case STRING:
+                        json.writeStringField(addressSpace.get(id).path, slots.strings[id]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private Slots slots(int id) {
+        Slots slots = this.slots;
+        return id < slots.kinds.length ? slots : grow(id);
+    }
+
+    private synchronized Slots grow(int id) {
+        Slots slots = this.slots;
+        if (id >= slots.kinds.length) {
+            slots = new Slots(slots, Math.max(id + 1, slots.kinds.length * 2));
+            this.slots = slots;
+        }
+        return slots;
+    }
+
+    /**
+     * The arrays, replaced together when they grow.
+     */
+    private static class Slots {
+        final byte[] kinds;
+        final float[] floats;
+        final String[] strings;
+
+        Slots(int length) {
+            kinds = new byte[length];
+            floats = new float[length];
+            strings = new String[length];
+        }
+
+        Slots(Slots other, int length) {
+            kinds = Arrays.copyOf(other.kinds, length);
+            floats = Arrays.copyOf(other.floats, length);
+            strings = Arrays.copyOf(other.strings, length);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.tinfig.wsosc;
+
+import java.util.Arrays;
+
+/**
+ * One slot per address id holding the most recent value written to it.  Values written
+ * between flushes overwrite each other in place, and a flush emits only the slots that have
+ * changed since the last one.
+ * <p>
+ * Writers and the flushing thread may be different threads; all access is synchronized on
+ * the table, and values are sent downstream outside the lock.
+ */
+public class LatestValueTable {
+    private final OscAddressSpace addressSpace;
+
+    private float[] floats = new float[256];
+    private String[] strings = new String[256];
+    private boolean[] dirty = new boolean[256];
+    private int[] dirtyIds = new int[256];
+    private int dirtyCount;
+    private long timetag = OscEncoder.TIMETAG_IMMEDIATELY;
+
+    // Only touched by the flushing thread
+    private int[] flushIds = new int[256];
+    private float[] flushFloats = new float[256];
+    private String[] flushStrings = new String[256];
+
+    public LatestValueTable(OscAddressSpace addressSpace) {
+        this.addressSpace = addressSpace;
+    }
+
+    public synchronized void setTimetag(long timetag) {
+        this.timetag = timetag;
+    }
+
+    public synchronized void putFloat(OscAddress address, float value) {
+        int id = markDirty(address.id);
+        floats[id] = value;
+        strings[id] = null;
+    }
+
+    public synchronized void putString(OscAddress address, String value) {
+        strings[markDirty(address.id)] = value;
+    }
+
+    public synchronized boolean isDirty() {
+        return dirtyCount > 0;
+    }
+
+    /**
+     * Sends every slot written since the last flush to the sink as one frame.  Nothing is sent
+     * if no slot is dirty.  Only one thread may flush a table.
+     *
+     * @return the number of values sent
+     */
+    public int flush(OscSink sink) {
+        int count;
+        long timetag;
+        synchronized (this) {
+            count = dirtyCount;
+            if (count == 0) {
+                return 0;
+            }
+            if (flushIds.length < count) {
+                int length = Math.max(count, flushIds.length * 2);
+                flushIds = new int[length];
+                flushFloats = new float[length];
+                flushStrings = new String[length];
+            }
+            for (int i = 0; i < count; i++) {
+                int id = dirtyIds[i];
+                flushIds[i] = id;
+                flushFloats[i] = floats[id];
+                flushStrings[i] = strings[id];
+                dirty[id] = false;
+            }
+            dirtyCount = 0;
+            timetag = this.timetag;
+        }
+
+        sink.beginFrame(timetag);
+        for (int i = 0; i < count; i++) {
+            OscAddress address = addressSpace.get(flushIds[i]);
+            if (flushStrings[i] != null) {
+                sink.stringValue(address, flushStrings[i]);
+                flushStrings[i] = null;
+            } else {
+                sink.floatValue(address, flushFloats[i]);
+            }
+        }
+        sink.endFrame();
+        return count;
+    }
+
+    private int markDirty(int id) {
+        if (id >= dirty.length) {
+            int length = Math.max(id + 1, dirty.length * 2);
+            floats = Arrays.copyOf(floats, length);
+            strings = Arrays.copyOf(strings, length);
+            dirty = Arrays.copyOf(dirty, length);
+            dirtyIds = Arrays.copyOf(dirtyIds, length);
+        }
+        if (!dirty[id]) {
+            dirty[id] = true;
+            dirtyIds[dirtyCount++] = id;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tinfig.wsosc;
+
+/**
+ * A bounded buffer of log lines waiting to be shown.  Any thread can add lines without
+ * touching the UI; the UI takes everything added since its last refresh in one batch.  If more
+ * lines arrive between refreshes than the buffer holds, the oldest are dropped and counted.
+ */
+public class LogBuffer {
+    private final String[] lines;
+    private int head;
+    private int size;
+    private long dropped;
+
+    public LogBuffer(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    public synchronized void add(String line) {
+        if (size == lines.length) {
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+            size--;
+            dropped++;
+        }
+        lines[(head + size) % lines.length] = line;
+        size++;
+    }
+
+    /**
+     * Appends the waiting lines to {@code out}, one per line, and empties the buffer.
+     *
+     * @return the number of lines appended
+     */
+    public synchronized int drainTo(StringBuilder out) {
+        int drained = size;
+        if (dropped > 0) {
+            out.append("... ").append(dropped).append(" lines not shown\n");
+            dropped = 0;
+        }
+        for (; size > 0; size--) {
+            out.append(lines[head]).append('\n');
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+        }
+        head = 0;
+        return drained;
+    }
+}
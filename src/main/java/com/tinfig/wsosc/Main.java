@@ -1,16 +1,79 @@
 package com.tinfig.wsosc;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import javax.swing.*;
+import java.io.File;
 
 public class Main {
-    public static void main(String[] args) {
+    private static final String DEFAULT_CONFIG_FILE = "ws-osc.json";
+
+    public static void main(String[] args) throws Exception {
+        boolean headless = false;
+        File replayJournal = null;
+        double replaySpeed = 1;
+        File configFile = new File(DEFAULT_CONFIG_FILE);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--headless":
+                    headless = true;
+                    break;
+                case "--config":
+                    if (++i == args.length) {
+                        usage();
+                    }
+                    configFile = new File(args[i]);
+                    break;
+                case "--replay":
+                    if (++i == args.length) {
+                        usage();
+                    }
+                    replayJournal = new File(args[i]);
+                    break;
+                case "--speed":
+                    if (++i == args.length) {
+                        usage();
+                    }
+                    replaySpeed = "max".equals(args[i]) ? 0 : Double.parseDouble(args[i]);
+                    break;
+                default:
+                    usage();
+                    break;
+            }
+        }
+
+        if (replayJournal != null) {
+            System.setProperty("java.awt.headless", "true");
+            Config config = new ObjectMapper().readValue(configFile, Config.class);
+            config.validate();
+            new JournalReplay(config, replayJournal, replaySpeed, System.out::println).run();
+        } else if (headless) {
+            // Keep AWT from initializing if anything brushes against it
+            System.setProperty("java.awt.headless", "true");
+            new HeadlessServer(configFile).run();
+        } else {
+            startGui(configFile);
+        }
+    }
+
+    private static void startGui(File configFile) {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
             JOptionPane.showMessageDialog(null, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
 
-        MainFrame frame = new MainFrame();
+        MainFrame frame = new MainFrame(configFile);
         frame.setVisible(true);
     }
+
+    private static void usage() {
+        System.err.println("usage: ws-osc [--headless] [--config <file>]");
+        System.err.println("       ws-osc --replay <journal> [--speed <x>|max] [--config <file>]");
+        System.err.println("  --headless         run without the UI, configured from a JSON file");
+        System.err.println("  --config <file>    the configuration file (default " + DEFAULT_CONFIG_FILE + "); the UI takes its targets from the window");
+        System.err.println("  --replay <journal> send a recorded journal directory or segment to the configured targets");
+        System.err.println("  --speed <x>|max    replay at x times the recorded speed, or as fast as possible");
+        System.exit(2);
+    }
 }
@@ -9,14 +9,16 @@ import com.intellij.uiDesigner.core.Spacer;
 
 import javax.swing.*;
 import javax.swing.table.TableColumn;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
@@ -24,6 +26,9 @@ import java.util.prefs.Preferences;
 public class MainFrame extends JFrame implements Logger {
     private static final String PREF_OSC_TARGETS = "oscTargets";
     private static final String PREF_COLUMN_WIDTHS = "columnWidths";
+    private static final int REFRESH_MILLIS = 250;
+    private static final long STATS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int MAX_LOG_LINES = 2000;
 
     private JTable tableOscTargets;
     private JTextArea textAreaLogs;
@@ -31,28 +36,44 @@ public class MainFrame extends JFrame implements Logger {
     private JButton applyButton;
     private JButton buttonAddOscTarget;
     private JButton buttonDeleteOscTarget;
-    private JProgressBar progressBarProcessing;
+    private JLabel labelRates;
+    private JLabel labelStats;
+    private JLabel labelSessions;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final Preferences prefs = Preferences.userNodeForPackage(MainFrame.class);
     private final OscTargetTableModel tableModel;
     private final AtomicBoolean closing = new AtomicBoolean();
-    private final Timer progressBarCancelTimer;
+    private final File configFile;
+    private final Metrics metrics = new Metrics();
+    private final LogBuffer logBuffer = new LogBuffer(MAX_LOG_LINES);
+    private final StringBuilder logText = new StringBuilder();
+    private long lastStatsNanos = System.nanoTime();
+    private long lastFrames;
+    private long lastPackets;
+    private long[] lastProcessing;
+    // Frames and packets per endpoint at the last update
+    private final Map<String, long[]> lastEndpointCounts = new HashMap<>();
+    private final StringBuilder sessionsText = new StringBuilder();
     private BridgeThread bridgeThread;
-    private TimerTask progressBarCancelTimerTask;
 
-    public MainFrame() {
+    /**
+     * @param configFile everything but the targets, which are edited here, is read from it if
+     *                   it exists
+     */
+    public MainFrame(File configFile) {
         super("WebSocket to OSC Bridge");
+        this.configFile = configFile;
 
         // UI
-        tableModel = new OscTargetTableModel();
+        tableModel = new OscTargetTableModel(this);
         setContentPane(rootPanel);
         textAreaLogs.setFont(new Font("monospaced", Font.PLAIN, 12));
         textAreaLogs.setAutoscrolls(true);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         tableOscTargets.setModel(tableModel);
-        progressBarProcessing.setMinimum(0);
-        progressBarProcessing.setMaximum(1);
+        tableOscTargets.setDefaultEditor(OscTarget.Overflow.class, new DefaultCellEditor(new JComboBox<>(OscTarget.Overflow.values())));
+        tableOscTargets.setDefaultEditor(OscTarget.Delivery.class, new DefaultCellEditor(new JComboBox<>(OscTarget.Delivery.values())));
         pack();
 
         // Prefs (updates UI)
@@ -71,7 +92,7 @@ public class MainFrame extends JFrame implements Logger {
 
         applyButton.addActionListener(e -> {
             savePrefs();
-            restartBridgeThread();
+            applyTargets();
         });
 
         buttonAddOscTarget.addActionListener(e -> {
@@ -87,7 +108,8 @@ public class MainFrame extends JFrame implements Logger {
             buttonDeleteOscTarget.setEnabled(tableOscTargets.getSelectedRowCount() > 0);
         });
 
-        progressBarCancelTimer = new Timer();
+        // Everything the bridge reports is sampled here rather than pushed per frame
+        new javax.swing.Timer(REFRESH_MILLIS, e -> refresh()).start();
 
         startBridgeThread();
     }
@@ -131,6 +153,13 @@ public class MainFrame extends JFrame implements Logger {
         }
     }
 
+    private void applyTargets() {
+        // Only the targets are configurable here, so they can change without dropping clients
+        if (bridgeThread != null && !bridgeThread.updateTargets(tableModel.getData())) {
+            restartBridgeThread();
+        }
+    }
+
     private void restartBridgeThread() {
         if (bridgeThread != null) {
             stopBridgeThread();
@@ -138,10 +167,25 @@ public class MainFrame extends JFrame implements Logger {
     }
 
     private void startBridgeThread() {
-        bridgeThread = new BridgeThread(tableModel.getData(), this::onMessageProcessed, this::onBridgeThreadShutdown, this::log);
+        Config config = loadConfig();
+        config.oscTargets = tableModel.getData();
+        bridgeThread = new BridgeThread(config, metrics, this::onBridgeThreadShutdown, this::log);
         bridgeThread.start();
     }
 
+    private Config loadConfig() {
+        if (configFile.exists()) {
+            try {
+                Config config = objectMapper.readValue(configFile, Config.class);
+                config.validate();
+                return config;
+            } catch (IOException | IllegalArgumentException e) {
+                log("Can't read " + configFile + ", using defaults: " + e.getMessage());
+            }
+        }
+        return new Config();
+    }
+
     private void stopBridgeThread() {
         if (bridgeThread != null) {
             bridgeThread.shutdownBridge();
@@ -163,27 +207,83 @@ public class MainFrame extends JFrame implements Logger {
         }
     }
 
-    private void onMessageProcessed() {
-        SwingUtilities.invokeLater(() -> {
-            if (progressBarCancelTimerTask != null) {
-                progressBarCancelTimerTask.cancel();
-            }
-            progressBarCancelTimer.purge();
+    private void refresh() {
+        flushLog();
+        if (System.nanoTime() - lastStatsNanos >= STATS_INTERVAL_NANOS) {
+            updateStats();
+        }
+    }
 
-            progressBarCancelTimerTask = new TimerTask() {
-                @Override
-                public void run() {
-                    progressBarProcessing.setValue(0);
-                    progressBarCancelTimerTask = null;
-                }
-            };
-            progressBarProcessing.setValue(1);
-            progressBarCancelTimer.schedule(progressBarCancelTimerTask, 200);
-        });
+    private void updateStats() {
+        long now = System.nanoTime();
+        long frames = metrics.framesReceived.sum();
+        long packets = metrics.oscPacketsSent();
+        double seconds = (now - lastStatsNanos) / 1e9;
+
+        labelRates.setText(String.format("%.0f msgs/s   %.0f packets/s",
+                (frames - lastFrames) / seconds,
+                Math.max(0, packets - lastPackets) / seconds));
+        // The p99 of the last interval only, so it shows how the bridge is doing now
+        long[] processing = metrics.frameProcessing.counts();
+        long p99Nanos = Histogram.quantileNanosSince(lastProcessing, processing, 0.99);
+        labelStats.setText(String.format("%d clients   %d frames dropped   p99 %.2f ms",
+                metrics.connectionsActive.sum(),
+                metrics.framesThrottled.sum() + metrics.framesSuperseded.sum(),
+                p99Nanos / 1e6));
+
+        updateSessions(seconds);
+
+        lastStatsNanos = now;
+        lastFrames = frames;
+        lastPackets = packets;
+        lastProcessing = processing;
+    }
+
+    private void updateSessions(double seconds) {
+        BridgeThread bridgeThread = this.bridgeThread;
+        List<BridgeEndpoint> endpoints = bridgeThread != null ? bridgeThread.getEndpoints() : Collections.emptyList();
+        sessionsText.setLength(0);
+        for (BridgeEndpoint endpoint : endpoints) {
+            long frames = endpoint.metrics.framesReceived.sum();
+            long packets = endpoint.metrics.oscPacketsSent();
+            long[] last = lastEndpointCounts.computeIfAbsent(endpoint.name, name -> new long[2]);
+            if (sessionsText.length() > 0) {
+                sessionsText.append("     ");
+            }
+            // Counts start over when the bridge restarts
+            sessionsText.append(String.format("%s: %d clients, %.0f msgs/s, %.0f packets/s",
+                    endpoint.name,
+                    endpoint.metrics.connectionsActive.sum(),
+                    Math.max(0, frames - last[0]) / seconds,
+                    Math.max(0, packets - last[1]) / seconds));
+            last[0] = frames;
+            last[1] = packets;
+        }
+        labelSessions.setText(sessionsText.length() > 0 ? sessionsText.toString() : "none");
     }
 
     public void log(String msg) {
-        SwingUtilities.invokeLater(() -> textAreaLogs.append(msg + "\n"));
+        logBuffer.add(msg);
+    }
+
+    /**
+     * Appends the lines logged since the last refresh in one go, and trims the oldest so the
+     * pane never holds more than {@link #MAX_LOG_LINES}.
+     */
+    private void flushLog() {
+        logText.setLength(0);
+        if (logBuffer.drainTo(logText) == 0) {
+            return;
+        }
+        textAreaLogs.append(logText.toString());
+        int excess = textAreaLogs.getLineCount() - MAX_LOG_LINES;
+        if (excess > 0) {
+            try {
+                textAreaLogs.replaceRange("", 0, textAreaLogs.getLineEndOffset(excess - 1));
+            } catch (BadLocationException e) {
+                textAreaLogs.setText("");
+            }
+        }
     }
 
     public int[] getColumnWidths() {
@@ -262,15 +362,25 @@ public class MainFrame extends JFrame implements Logger {
         textAreaLogs.setLineWrap(true);
         scrollPane2.setViewportView(textAreaLogs);
         final JPanel panel5 = new JPanel();
-        panel5.setLayout(new GridLayoutManager(1, 3, new Insets(0, 0, 0, 0), -1, -1));
+        panel5.setLayout(new GridLayoutManager(2, 4, new Insets(0, 0, 0, 0), -1, -1));
         rootPanel.add(panel5, new GridConstraints(1, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
-        progressBarProcessing = new JProgressBar();
-        panel5.add(progressBarProcessing, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, new Dimension(40, 20), new Dimension(40, 20), new Dimension(40, 20), 1, false));
+        labelRates = new JLabel();
+        labelRates.setText("");
+        panel5.add(labelRates, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 1, false));
         final JLabel label3 = new JLabel();
-        label3.setText("Processing WebSocket Message");
+        label3.setText("Throughput");
         panel5.add(label3, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         final Spacer spacer2 = new Spacer();
         panel5.add(spacer2, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, 1, null, null, null, 0, false));
+        labelStats = new JLabel();
+        labelStats.setText("");
+        panel5.add(labelStats, new GridConstraints(0, 3, 1, 1, GridConstraints.ANCHOR_EAST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        final JLabel label4 = new JLabel();
+        label4.setText("Sessions");
+        panel5.add(label4, new GridConstraints(1, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        labelSessions = new JLabel();
+        labelSessions.setText("");
+        panel5.add(labelSessions, new GridConstraints(1, 1, 1, 3, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 1, false));
         label1.setLabelFor(scrollPane1);
     }
 
@@ -0,0 +1,35 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Tells {@link JsonFlattener} how to bridge one message type other than face events.  Every
+ * value under the message's "data" is sent to the prefix followed by its key path, with array
+ * elements numbered from zero, so {@code {"type":"hands","data":{"left":{"x":0.5}}}} becomes
+ * {@code /hands/left/x 0.5}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class MessageMapping {
+    /**
+     * The message's "type", or "*" for every type without a mapping of its own.
+     */
+    public String type;
+    /**
+     * Where the key paths start.  Defaults to "/" and the message type.
+     */
+    public String prefix;
+    /**
+     * Key path below "data", separated by '/', of the frame's timestamp.  It is used for the
+     * bundle timetag and not sent as a value.
+     */
+    public String timestamp;
+
+    public MessageMapping() {
+    }
+
+    public MessageMapping(String type, String prefix, String timestamp) {
+        this.type = type;
+        this.prefix = prefix;
+        this.timestamp = timestamp;
+    }
+}
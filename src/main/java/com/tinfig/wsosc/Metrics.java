@@ -0,0 +1,144 @@
+package com.tinfig.wsosc;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bridge-wide counters and latency histograms, cheap enough to record on the hot path.
+ * <p>
+ * One instance lives as long as the front end, so counts survive bridge restarts.  Per-target
+ * figures come from the {@link TargetSender}s of whichever egress is currently running.
+ */
+public class Metrics {
+    public final LongAdder connectionsOpened = new LongAdder();
+    public final LongAdder connectionsActive = new LongAdder();
+    public final LongAdder framesReceived = new LongAdder();
+    public final LongAdder framesInvalid = new LongAdder();
+    public final LongAdder framesOverAddressLimit = new LongAdder();
+    public final LongAdder frameBytes = new LongAdder();
+    public final LongAdder framesThrottled = new LongAdder();
+    public final LongAdder framesSuperseded = new LongAdder();
+    public final LongAdder readPauses = new LongAdder();
+    public final LongAdder jitterFramesLate = new LongAdder();
+    public final LongAdder jitterFramesOverflowed = new LongAdder();
+    public final LongAdder snapshotsReplayed = new LongAdder();
+    public final LongAdder oscValues = new LongAdder();
+    public final LongAdder oscPacketsReceived = new LongAdder();
+    public final LongAdder oscPacketsInvalid = new LongAdder();
+    public final LongAdder subscribersActive = new LongAdder();
+    public final LongAdder subscriberFramesSent = new LongAdder();
+    public final LongAdder subscriberFramesDropped = new LongAdder();
+
+    /**
+     * Time from a WebSocket frame arriving to all of its packets being queued for the targets.
+     */
+    public final Histogram frameProcessing = new Histogram();
+    /**
+     * How much longer than the fastest recent frame each frame took to arrive, as seen by the
+     * jitter buffer.
+     */
+    public final Histogram frameJitter = new Histogram();
+
+    private volatile OscEgress egress;
+
+    void setEgress(OscEgress egress) {
+        this.egress = egress;
+    }
+
+    /**
+     * Total packets sent to all targets of the running egress.
+     */
+    public long oscPacketsSent() {
+        OscEgress egress = this.egress;
+        long sent = 0;
+        if (egress != null) {
+            for (TargetSender sender : egress.getSenders()) {
+                sent += sender.getSent();
+            }
+        }
+        return sent;
+    }
+
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "wsosc_connections_total", "WebSocket connections accepted", connectionsOpened.sum());
+        gauge(out, "wsosc_connections", "WebSocket connections currently open", connectionsActive.sum());
+        counter(out, "wsosc_frames_total", "WebSocket frames received", framesReceived.sum());
+        counter(out, "wsosc_frames_invalid_total", "WebSocket frames that couldn't be parsed", framesInvalid.sum());
+        counter(out, "wsosc_frames_over_address_limit_total", "WebSocket frames dropped because they needed new OSC addresses past maxOscAddresses or maxOscAddressesPerConnection", framesOverAddressLimit.sum());
+        counter(out, "wsosc_frame_bytes_total", "WebSocket frame payload bytes received", frameBytes.sum());
+        counter(out, "wsosc_frames_throttled_total", "WebSocket frames dropped for exceeding a connection's quota", framesThrottled.sum());
+        counter(out, "wsosc_frames_superseded_total", "WebSocket frames dropped because a newer one arrived in the same read", framesSuperseded.sum());
+        counter(out, "wsosc_read_pauses_total", "Times a connection stopped reading because a target queue was filling up", readPauses.sum());
+        counter(out, "wsosc_osc_values_total", "OSC values sent to the egress", oscValues.sum());
+        counter(out, "wsosc_osc_packets_received_total", "OSC packets received for subscribers", oscPacketsReceived.sum());
+        counter(out, "wsosc_osc_packets_invalid_total", "OSC packets received that couldn't be parsed", oscPacketsInvalid.sum());
+        gauge(out, "wsosc_subscribers", "WebSocket subscribers currently connected", subscribersActive.sum());
+        counter(out, "wsosc_subscriber_frames_total", "Frames sent to subscribers", subscriberFramesSent.sum());
+        counter(out, "wsosc_subscriber_frames_dropped_total", "Frames not sent to subscribers that were behind", subscriberFramesDropped.sum());
+
+        out.append("# HELP wsosc_frame_processing_seconds Time from receiving a frame to queueing its OSC packets\n");
+        out.append("# TYPE wsosc_frame_processing_seconds histogram\n");
+        frameProcessing.writePrometheus(out, "wsosc_frame_processing_seconds", "");
+        counter(out, "wsosc_jitter_frames_late_total", "Frames dropped for arriving after their jitter buffer release time", jitterFramesLate.sum());
+        counter(out, "wsosc_jitter_frames_overflowed_total", "Frames dropped because a jitter buffer was full", jitterFramesOverflowed.sum());
+        counter(out, "wsosc_snapshots_replayed_total", "Times the last-value cache was replayed to a target", snapshotsReplayed.sum());
+        out.append("# HELP wsosc_frame_jitter_seconds Arrival delay of frames beyond the fastest recent frame\n");
+        out.append("# TYPE wsosc_frame_jitter_seconds histogram\n");
+        frameJitter.writePrometheus(out, "wsosc_frame_jitter_seconds", "");
+
+        OscEgress egress = this.egress;
+        if (egress != null) {
+            writeTargets(out, egress);
+        }
+        return out.toString();
+    }
+
+    private static void writeTargets(StringBuilder out, OscEgress egress) {
+        // One snapshot for all the series, even if the targets change meanwhile
+        List<TargetSender> senders = egress.getSenders();
+        out.append("# HELP wsosc_osc_packets_sent_total OSC packets sent per target\n");
+        out.append("# TYPE wsosc_osc_packets_sent_total counter\n");
+        for (TargetSender sender : senders) {
+            out.append("wsosc_osc_packets_sent_total{").append(label(sender)).append("} ").append(sender.getSent()).append('\n');
+        }
+        out.append("# HELP wsosc_osc_packets_dropped_total OSC packets dropped by the overflow policy per target\n");
+        out.append("# TYPE wsosc_osc_packets_dropped_total counter\n");
+        for (TargetSender sender : senders) {
+            out.append("wsosc_osc_packets_dropped_total{").append(label(sender)).append("} ").append(sender.getDropped()).append('\n');
+        }
+        out.append("# HELP wsosc_osc_send_errors_total OSC send errors per target\n");
+        out.append("# TYPE wsosc_osc_send_errors_total counter\n");
+        for (TargetSender sender : senders) {
+            out.append("wsosc_osc_send_errors_total{").append(label(sender)).append("} ").append(sender.getErrors()).append('\n');
+        }
+        out.append("# HELP wsosc_osc_queue_depth OSC packets waiting to be sent per target\n");
+        out.append("# TYPE wsosc_osc_queue_depth gauge\n");
+        for (TargetSender sender : senders) {
+            out.append("wsosc_osc_queue_depth{").append(label(sender)).append("} ").append(sender.getQueued()).append('\n');
+        }
+        out.append("# HELP wsosc_osc_queue_delay_seconds Time OSC packets wait in the queue before being sent\n");
+        out.append("# TYPE wsosc_osc_queue_delay_seconds histogram\n");
+        for (TargetSender sender : senders) {
+            sender.getQueueDelay().writePrometheus(out, "wsosc_osc_queue_delay_seconds", label(sender));
+        }
+    }
+
+    private static String label(TargetSender sender) {
+        return "target=\"" + sender.target.address + ":" + sender.target.port + "\"";
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,65 @@
+package com.tinfig.wsosc;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned OSC address.  Each address is created once per {@link OscAddressSpace}, gets a
+ * small dense id, and keeps its address pattern pre-encoded and padded to a 4 byte boundary so
+ * it can be copied straight into outgoing packets.
+ */
+public class OscAddress {
+    private final OscAddressSpace space;
+    private final ConcurrentHashMap<String, OscAddress> children = new ConcurrentHashMap<>();
+
+    public final int id;
+    public final String path;
+    final byte[] encoded;
+
+    OscAddress(OscAddressSpace space, int id, String path) {
+        this.space = space;
+        this.id = id;
+        this.path = path;
+        this.encoded = OscEncoder.encodeString(path);
+    }
+
+    /**
+     * Returns the address one level below this one, interning it on first use.  Lookups of
+     * existing children do not allocate.
+     *
+     * @throws AddressSpaceFullException if the child is new and the address space is full
+     */
+    public OscAddress child(String name) {
+        return child(name, true);
+    }
+
+    /**
+     * Like {@link #child(String)}, but a new child is also paid for from the budget.
+     */
+    public OscAddress child(String name, AddressBudget budget) {
+        OscAddress child = children.get(name);
+        if (child == null) {
+            child = children.computeIfAbsent(name, n -> {
+                budget.spend();
+                return space.create(path.equals("/") ? "/" + n : path + "/" + n, true);
+            });
+        }
+        return child;
+    }
+
+    OscAddress child(String name, boolean limited) {
+        OscAddress child = children.get(name);
+        if (child == null) {
+            child = children.computeIfAbsent(name, n -> space.create(path.equals("/") ? "/" + n : path + "/" + n, limited));
+        }
+        return child;
+    }
+
+    public int encodedLength() {
+        return encoded.length;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
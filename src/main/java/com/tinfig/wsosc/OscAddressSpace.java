@@ -0,0 +1,109 @@
+package com.tinfig.wsosc;
+
+import java.util.Arrays;
+
+/**
+ * The set of OSC addresses the bridge has emitted, interned as a tree rooted at "/".
+ * Addresses are numbered densely from zero so per-address state can live in primitive arrays.
+ * <p>
+ * Addresses are never forgotten, and clients choose many of them, so the space has a limit.
+ * Past it, asking for a new address throws {@link AddressSpaceFullException}; the frame that
+ * asked is dropped and the addresses already known keep working.
+ */
+public class OscAddressSpace {
+    public static final int DEFAULT_LIMIT = 65536;
+
+    private final OscAddress root;
+    private volatile OscAddress[] addresses = new OscAddress[256];
+    private volatile int size;
+    private volatile int limit = DEFAULT_LIMIT;
+
+    public OscAddressSpace() {
+        root = create("/", false);
+    }
+
+    /**
+     * An address space whose root, and so every address in it, starts with the given prefix,
+     * such as "/alice".
+     */
+    public OscAddressSpace(String prefix) {
+        StringBuilder path = new StringBuilder();
+        for (String part : prefix.split("/")) {
+            if (!part.isEmpty()) {
+                path.append('/').append(part);
+            }
+        }
+        root = create(path.length() > 0 ? path.toString() : "/", false);
+    }
+
+    /**
+     * Sets how many addresses may be interned.  Addresses renamed by routes may go past it,
+     * since each is derived from one that counted.
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public OscAddress root() {
+        return root;
+    }
+
+    /**
+     * Interns an address given as a full path such as "/emotions/joy".
+     */
+    public OscAddress resolve(String path) {
+        return resolve(path, true);
+    }
+
+    /**
+     * Like {@link #resolve(String)}, but new addresses are also paid for from the budget.
+     */
+    public OscAddress resolve(String path, AddressBudget budget) {
+        OscAddress address = root;
+        for (String part : path.split("/")) {
+            if (!part.isEmpty()) {
+                address = address.child(part, budget);
+            }
+        }
+        return address;
+    }
+
+    /**
+     * @param limited whether a new address counts against the limit
+     */
+    OscAddress resolve(String path, boolean limited) {
+        OscAddress address = root;
+        for (String part : path.split("/")) {
+            if (!part.isEmpty()) {
+                address = address.child(part, limited);
+            }
+        }
+        return address;
+    }
+
+    public OscAddress get(int id) {
+        return addresses[id];
+    }
+
+    /**
+     * One more than the largest address id handed out so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    synchronized OscAddress create(String path, boolean limited) {
+        if (limited && size >= limit) {
+            throw new AddressSpaceFullException(limit);
+        }
+        OscAddress[] addresses = this.addresses;
+        if (size == addresses.length) {
+            addresses = Arrays.copyOf(addresses, addresses.length * 2);
+        }
+        OscAddress address = new OscAddress(this, size, path);
+        addresses[size] = address;
+        this.addresses = addresses;
+        size++;
+        return address;
+    }
+}
@@ -0,0 +1,52 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * Sends WebSocket frames to every subscribed client.  Each frame is encoded once; every client
+ * gets a retained duplicate of the same buffer rather than a copy.
+ * <p>
+ * A client whose outbound buffer is past its high-water mark misses frames until it drains, so
+ * one slow browser can't make the bridge buffer without bound.
+ */
+public class OscBroadcaster {
+    private final ChannelGroup subscribers = new DefaultChannelGroup("subscribers", GlobalEventExecutor.INSTANCE);
+    private final Metrics metrics;
+
+    public OscBroadcaster(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a client; it's removed automatically when its channel closes.
+     */
+    public void subscribe(Channel channel) {
+        subscribers.add(channel);
+    }
+
+    public int size() {
+        return subscribers.size();
+    }
+
+    /**
+     * Sends the frame to every writable subscriber and releases it.
+     */
+    public void broadcast(WebSocketFrame frame) {
+        try {
+            for (Channel channel : subscribers) {
+                if (channel.isWritable()) {
+                    channel.writeAndFlush(frame.retainedDuplicate(), channel.voidPromise());
+                    metrics.subscriberFramesSent.increment();
+                } else {
+                    metrics.subscriberFramesDropped.increment();
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.tinfig.wsosc;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples OSC egress from WebSocket ingress.  Every connection writes into one shared
+ * {@link LatestValueTable}, and a scheduler flushes the changed values to the targets at a
+ * fixed rate, so egress never exceeds that rate however fast frames arrive.
+ */
+public class OscCoalescer {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(OscCoalescer.class);
+
+    private final OscEgress egress;
+    private final LatestValueTable table;
+    private final long periodNanos;
+    private ScheduledExecutorService scheduler;
+
+    public OscCoalescer(OscEgress egress, OscAddressSpace addressSpace, int flushRateHz) {
+        this.egress = egress;
+        this.table = new LatestValueTable(addressSpace);
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / flushRateHz;
+    }
+
+    /**
+     * Creates a sink for one connection to write its frames into.
+     */
+    public OscSink newSink() {
+        return new OscSink() {
+            @Override
+            public void beginFrame(long timetag) {
+                table.setTimetag(timetag);
+            }
+
+            @Override
+            public void floatValue(OscAddress address, float value) {
+                table.putFloat(address, value);
+            }
+
+            @Override
+            public void stringValue(OscAddress address, String value) {
+                table.putString(address, value);
+            }
+
+            @Override
+            public void endFrame() {
+            }
+        };
+    }
+
+    public void start() throws IOException {
+        egress.retain();
+        EgressSession session = egress.newSession();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OscCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                table.flush(session);
+            } catch (RuntimeException e) {
+                LOG.warn("error flushing OSC values", e);
+            }
+        }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            egress.release();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.EventLoopGroup;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Process-wide UDP egress shared by every WebSocket connection.
+ * <p>
+ * Target addresses are resolved when the targets are set.  Each target gets a
+ * {@link TargetSender} with its own channel, queue and thread, started when the first
+ * connection retains the egress and stopped again when the last one releases it.  Which
+ * target gets which address is decided by the {@link RoutingTable} built from their routes.
+ * <p>
+ * The senders and routing table are published together as an immutable {@link Snapshot}.
+ * {@link #setTargets} swaps in a new one while the bridge runs: sessions pick it up at their
+ * next frame, unchanged targets keep their running sender, and only removed targets stop.
+ * <p>
+ * Every value sent is kept in a {@link LastValueCache}.  While the senders run, the cache is
+ * replayed to each target that is added, to every target on the snapshot interval, and on
+ * request, from a thread of its own that waits for a target's queue to drain as it goes.
+ */
+public class OscEgress {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(OscEgress.class);
+    // Most address ids replayed per frame
+    private static final int REPLAY_CHUNK = 64;
+    private static final long REPLAY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final OscAddressSpace addressSpace;
+    private final int queueSize;
+    private final Metrics metrics;
+    private final Logger logger;
+    private final EventLoopGroup eventLoops;
+    private final LastValueCache cache;
+    private volatile Snapshot snapshot;
+    private int refCount;
+    private long snapshotIntervalMillis;
+    private ScheduledExecutorService replayer;
+
+    public OscEgress(List<OscTarget> targets, OscAddressSpace addressSpace, int queueSize, Metrics metrics, Logger logger) {
+        this(targets, addressSpace, queueSize, metrics, logger, null);
+    }
+
+    /**
+     * @param eventLoops where TCP targets connect, or null to skip TCP targets
+     */
+    public OscEgress(List<OscTarget> targets, OscAddressSpace addressSpace, int queueSize, Metrics metrics, Logger logger, EventLoopGroup eventLoops) {
+        this.addressSpace = addressSpace;
+        this.queueSize = queueSize;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.eventLoops = eventLoops;
+        this.cache = new LastValueCache(addressSpace);
+        this.snapshot = createSnapshot(targets, Collections.emptyList());
+    }
+
+    /**
+     * The current snapshot, which stays valid after a swap for whoever still holds it.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public List<TargetSender> getSenders() {
+        return snapshot.senders;
+    }
+
+    /**
+     * Whether any target's send queue is more than the given fraction full.  TCP targets that
+     * are waiting to reconnect are left out, so one unreachable receiver can't pause the input.
+     */
+    public boolean isQueueAbove(double fraction) {
+        for (TargetSender sender : snapshot.senders) {
+            if (!sender.isDisconnected() && sender.getQueued() > fraction * sender.getQueueCapacity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public LastValueCache getCache() {
+        return cache;
+    }
+
+    /**
+     * How often the cache is replayed to every target, or 0 for never.  Takes effect the next
+     * time the senders start.
+     */
+    public synchronized void setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Creates a session for one connection to encode and send through.
+     */
+    public EgressSession newSession() {
+        return new EgressSession(this, null);
+    }
+
+    /**
+     * Replays the cached values to the targets in the background.
+     *
+     * @param target "address:port" of the one target to replay to, or null for all of them
+     */
+    public synchronized void replaySnapshot(String target) {
+        if (replayer == null) {
+            return;
+        }
+        for (TargetSender sender : snapshot.senders) {
+            if (target == null || target.equals(sender.target.address + ":" + sender.target.port)) {
+                replayer.execute(() -> replay(sender));
+            }
+        }
+    }
+
+    /**
+     * Sends the cached values to one target, a chunk at a time so the snapshot doesn't push
+     * live packets out of its queue.
+     */
+    private void replay(TargetSender sender) {
+        try {
+            EgressSession session = new EgressSession(this, sender);
+            int size = cache.size();
+            // A chunk is at most one packet per value, so it always fits in the emptier half
+            int chunk = Math.max(1, Math.min(REPLAY_CHUNK, sender.getQueueCapacity() / 2));
+            int count = 0;
+            for (int from = 0; from < size; from += chunk) {
+                while (sender.getQueued() > sender.getQueueCapacity() / 2) {
+                    if (!sender.isRunning() || Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    LockSupport.parkNanos(REPLAY_WAIT_NANOS);
+                }
+                count += cache.replay(session, from, from + chunk);
+            }
+            metrics.snapshotsReplayed.increment();
+            LOG.debug("replayed {} values to {}", count, sender.address);
+        } catch (RuntimeException e) {
+            LOG.warn("error replaying values to {}", sender.address, e);
+        }
+    }
+
+    /**
+     * Replaces the targets without interrupting the ones that stay.  The targets are copied, so
+     * the caller may keep editing its list.
+     */
+    public synchronized void setTargets(List<OscTarget> targets) {
+        Snapshot old = snapshot;
+        Snapshot next = createSnapshot(targets, old.senders);
+        if (refCount > 0) {
+            for (TargetSender sender : next.senders) {
+                try {
+                    sender.start();
+                } catch (IOException e) {
+                    logger.log("Can't start OSC target " + sender.address + ": " + e.getMessage());
+                }
+            }
+        }
+        snapshot = next;
+
+        // Sessions still sending an old frame to a removed target just lose those packets
+        for (TargetSender sender : old.senders) {
+            if (!next.senders.contains(sender)) {
+                stopSender(sender);
+            }
+        }
+        if (replayer != null) {
+            for (TargetSender sender : next.senders) {
+                if (!old.senders.contains(sender)) {
+                    replayer.execute(() -> replay(sender));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a snapshot of the given targets, reusing the senders of any that haven't changed.
+     */
+    private Snapshot createSnapshot(List<OscTarget> targets, List<TargetSender> current) {
+        List<TargetSender> senders = new ArrayList<>();
+        List<OscTarget> routed = new ArrayList<>();
+        for (OscTarget target : targets) {
+            target = new OscTarget(target);
+            if (senders.size() == RoutingTable.MAX_TARGETS) {
+                logger.log("Skipping OSC target " + target.address + ":" + target.port
+                        + ": at most " + RoutingTable.MAX_TARGETS + " targets are supported");
+                continue;
+            }
+            try {
+                RoutingTable.compile(target.routes);
+            } catch (IllegalArgumentException e) {
+                logger.log("Skipping OSC target " + target.address + ":" + target.port + ": " + e.getMessage());
+                continue;
+            }
+            TargetSender sender = findSender(current, target);
+            if (sender == null || senders.contains(sender)) {
+                if (target.address == null || target.address.trim().isEmpty()) {
+                    logger.log("Skipping OSC target :" + target.port + ": no host");
+                    continue;
+                }
+                InetSocketAddress address;
+                try {
+                    address = new InetSocketAddress(target.address, target.port);
+                } catch (IllegalArgumentException e) {
+                    // A port out of range
+                    logger.log("Skipping OSC target " + target.address + ":" + target.port + ": " + e.getMessage());
+                    continue;
+                }
+                if (address.isUnresolved()) {
+                    logger.log("Skipping OSC target " + target.address + ":" + target.port + ": unknown host");
+                    continue;
+                }
+                String problem = checkDelivery(target, address);
+                if (problem != null) {
+                    logger.log("Skipping OSC target " + target.address + ":" + target.port + ": " + problem);
+                    continue;
+                }
+                sender = new TargetSender(target, address, addressSpace, queueSize, eventLoops);
+            }
+            senders.add(sender);
+            routed.add(target);
+        }
+        return new Snapshot(Collections.unmodifiableList(senders), new RoutingTable(routed, addressSpace));
+    }
+
+    /**
+     * Finds a sender that sends the way the target asks; routes don't matter to the sender.
+     */
+    private static TargetSender findSender(List<TargetSender> senders, OscTarget target) {
+        for (TargetSender sender : senders) {
+            if (sender.target.port == target.port &&
+                    sender.target.bundle == target.bundle &&
+                    sender.target.overflow == target.overflow &&
+                    sender.target.delivery == target.delivery &&
+                    sender.target.ttl == target.ttl &&
+                    sender.target.loopback == target.loopback &&
+                    Objects.equals(sender.target.networkInterface, target.networkInterface) &&
+                    Objects.equals(sender.target.address, target.address)) {
+                return sender;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns why the address doesn't suit the target's delivery, or null if it does.
+     */
+    private String checkDelivery(OscTarget target, InetSocketAddress address) {
+        switch (target.delivery) {
+            case MULTICAST:
+                if (!(address.getAddress() instanceof Inet4Address) || !address.getAddress().isMulticastAddress()) {
+                    return "not an IPv4 multicast group";
+                }
+                if (target.ttl < 0 || target.ttl > 255) {
+                    return "multicast TTL must be between 0 and 255";
+                }
+                return null;
+            case BROADCAST:
+                if (!(address.getAddress() instanceof Inet4Address)) {
+                    return "broadcast needs an IPv4 address";
+                }
+                return null;
+            case TCP:
+                return eventLoops == null ? "TCP targets are only supported by the bridge" : null;
+            default:
+                return null;
+        }
+    }
+
+    public synchronized void retain() throws IOException {
+        if (refCount++ == 0) {
+            try {
+                for (TargetSender sender : snapshot.senders) {
+                    sender.start();
+                }
+                startReplayer();
+            } catch (IOException e) {
+                refCount--;
+                stopSenders();
+                throw e;
+            }
+        }
+    }
+
+    public synchronized void release() {
+        if (refCount > 0 && --refCount == 0) {
+            stopSenders();
+        }
+    }
+
+    /**
+     * Stops the senders regardless of outstanding references, for when the bridge stops.
+     */
+    public synchronized void close() {
+        refCount = 0;
+        stopSenders();
+    }
+
+    private void startReplayer() {
+        replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OscEgress replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (snapshotIntervalMillis > 0) {
+            replayer.scheduleWithFixedDelay(() -> {
+                for (TargetSender sender : snapshot.senders) {
+                    replay(sender);
+                }
+            }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void stopSenders() {
+        if (replayer != null) {
+            replayer.shutdownNow();
+            replayer = null;
+        }
+        for (TargetSender sender : snapshot.senders) {
+            stopSender(sender);
+        }
+    }
+
+    private static void stopSender(TargetSender sender) {
+        sender.stop();
+        if (sender.getDropped() > 0 || sender.getErrors() > 0) {
+            LOG.info("OSC target {}: {} sent, {} dropped, {} errors",
+                    sender.address, sender.getSent(), sender.getDropped(), sender.getErrors());
+        }
+    }
+
+    /**
+     * The senders and routing of one set of targets.  Never changes once published.
+     */
+    public static class Snapshot {
+        public final List<TargetSender> senders;
+        public final RoutingTable routing;
+
+        Snapshot(List<TargetSender> senders, RoutingTable routing) {
+            this.senders = senders;
+            this.routing = routing;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.tinfig.wsosc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes OSC 1.0 messages and bundles directly into {@link ByteBuffer}s without allocating.
+ * <p>
+ * Each write method returns false, leaving the buffer untouched, when the encoded message
+ * would not fit in the remaining space.
+ */
+public class OscEncoder {
+    /**
+     * Largest UDP payload that fits a 1500 byte Ethernet MTU without IP fragmentation.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 1472;
+
+    /**
+     * "#bundle\0" followed by the 64-bit timetag.
+     */
+    public static final int BUNDLE_HEADER_SIZE = 16;
+
+    /**
+     * The special timetag meaning "immediately".
+     */
+    public static final long TIMETAG_IMMEDIATELY = 1L;
+
+    private static final byte[] BUNDLE_TAG = encodeString("#bundle");
+    private static final byte[] FLOAT_TYPE_TAG = encodeString(",f");
+    private static final byte[] INT_TYPE_TAG = encodeString(",i");
+    private static final byte[] STRING_TYPE_TAG = encodeString(",s");
+
+    // Seconds between the NTP epoch (1900) and the Java epoch (1970)
+    private static final long NTP_EPOCH_OFFSET_SECONDS = 2208988800L;
+
+    public static boolean writeFloat(ByteBuffer buf, OscAddress address, float value) {
+        if (buf.remaining() < address.encoded.length + FLOAT_TYPE_TAG.length + 4) {
+            return false;
+        }
+        buf.put(address.encoded).put(FLOAT_TYPE_TAG).putFloat(value);
+        return true;
+    }
+
+    public static boolean writeInt(ByteBuffer buf, OscAddress address, int value) {
+        if (buf.remaining() < address.encoded.length + INT_TYPE_TAG.length + 4) {
+            return false;
+        }
+        buf.put(address.encoded).put(INT_TYPE_TAG).putInt(value);
+        return true;
+    }
+
+    public static boolean writeString(ByteBuffer buf, OscAddress address, String value) {
+        if (!isAscii(value)) {
+            // Rare enough (appearance values are plain words) that allocating here is fine
+            byte[] encoded = encodeString(value);
+            if (buf.remaining() < address.encoded.length + STRING_TYPE_TAG.length + encoded.length) {
+                return false;
+            }
+            buf.put(address.encoded).put(STRING_TYPE_TAG).put(encoded);
+            return true;
+        }
+
+        int length = value.length();
+        int padded = paddedLength(length + 1);
+        if (buf.remaining() < address.encoded.length + STRING_TYPE_TAG.length + padded) {
+            return false;
+        }
+        buf.put(address.encoded).put(STRING_TYPE_TAG);
+        for (int i = 0; i < length; i++) {
+            buf.put((byte) value.charAt(i));
+        }
+        for (int i = length; i < padded; i++) {
+            buf.put((byte) 0);
+        }
+        return true;
+    }
+
+    public static void writeBundleHeader(ByteBuffer buf, long timetag) {
+        buf.put(BUNDLE_TAG).putLong(timetag);
+    }
+
+    /**
+     * Converts milliseconds since the Java epoch to a 64-bit NTP timetag.
+     */
+    public static long toTimetag(long millis) {
+        long seconds = Math.floorDiv(millis, 1000L) + NTP_EPOCH_OFFSET_SECONDS;
+        long fraction = (Math.floorMod(millis, 1000L) << 32) / 1000;
+        return (seconds << 32) | fraction;
+    }
+
+    /**
+     * Converts a 64-bit NTP timetag back to nanoseconds since the Java epoch.
+     */
+    public static long toEpochNanos(long timetag) {
+        long seconds = (timetag >>> 32) - NTP_EPOCH_OFFSET_SECONDS;
+        long fraction = ((timetag & 0xFFFFFFFFL) * 1_000_000_000L) >>> 32;
+        return seconds * 1_000_000_000L + fraction;
+    }
+
+    /**
+     * Encodes an OSC-string: the UTF-8 bytes, a terminating NUL, and NUL padding to a multiple
+     * of four bytes.
+     */
+    static byte[] encodeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = new byte[paddedLength(bytes.length + 1)];
+        System.arraycopy(bytes, 0, encoded, 0, bytes.length);
+        return encoded;
+    }
+
+    static int paddedLength(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
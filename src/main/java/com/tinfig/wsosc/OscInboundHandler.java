@@ -0,0 +1,210 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns each incoming OSC datagram into one JSON text frame for the subscribers:
+ * <pre>
+ * {"type":"osc","messages":[{"address":"/light/1","args":[0.5,"on"]}, ...]}
+ * </pre>
+ * Bundles are flattened into the message list.  The JSON is written once, straight into a
+ * pooled buffer that {@link OscBroadcaster} shares between all subscribers.
+ * <p>
+ * A {@value #DUMP_ADDRESS} message is not forwarded; it asks the egress to replay its cached
+ * values, to the target named by its optional "address:port" string argument or to all of them.
+ */
+public class OscInboundHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(OscInboundHandler.class);
+
+    static final String DUMP_ADDRESS = "/ws-osc/dump";
+
+    private static final byte[] BUNDLE = "#bundle\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DUMP = (DUMP_ADDRESS + "\0").getBytes(StandardCharsets.US_ASCII);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final OscBroadcaster broadcaster;
+    private final OscEgress egress;
+    private final Metrics metrics;
+
+    public OscInboundHandler(OscBroadcaster broadcaster, OscEgress egress, Metrics metrics) {
+        this.broadcaster = broadcaster;
+        this.egress = egress;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) throws Exception {
+        metrics.oscPacketsReceived.increment();
+        ByteBuf content = packet.content();
+        if (content.readableBytes() >= DUMP.length && startsWith(content, content.readerIndex(), DUMP)) {
+            dump(packet);
+            return;
+        }
+        if (broadcaster.size() == 0) {
+            return;
+        }
+
+        ByteBuf in = packet.content();
+        ByteBuf out = ctx.alloc().buffer(in.readableBytes() * 2);
+        try (JsonGenerator json = jsonFactory.createGenerator((OutputStream) new ByteBufOutputStream(out))) {
+            json.writeStartObject();
+            json.writeStringField("type", "osc");
+            json.writeArrayFieldStart("messages");
+            writePacket(json, in, in.readerIndex(), in.writerIndex());
+            json.writeEndArray();
+            json.writeEndObject();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            out.release();
+            metrics.oscPacketsInvalid.increment();
+            LOG.debug("[{}] invalid OSC packet: {}", packet.sender(), e.getMessage());
+            return;
+        }
+        broadcaster.broadcast(new TextWebSocketFrame(out));
+    }
+
+    private void dump(DatagramPacket packet) {
+        ByteBuf in = packet.content();
+        int start = in.readerIndex();
+        int end = in.writerIndex();
+        String target = null;
+        try {
+            int tags = padded(start, start + DUMP_ADDRESS.length());
+            if (tags + 1 < end && in.getByte(tags) == ',' && in.getByte(tags + 1) == 's') {
+                int arg = padded(tags, stringEnd(in, tags, end));
+                target = in.toString(arg, stringEnd(in, arg, end) - arg, StandardCharsets.UTF_8);
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            metrics.oscPacketsInvalid.increment();
+            LOG.debug("[{}] invalid OSC packet: {}", packet.sender(), e.getMessage());
+            return;
+        }
+        LOG.info("[{}] replaying cached values to {}", packet.sender(), target != null ? target : "all targets");
+        egress.replaySnapshot(target);
+    }
+
+    private void writePacket(JsonGenerator json, ByteBuf in, int start, int end) throws IOException {
+        if (end - start >= BUNDLE.length + 8 && startsWith(in, start, BUNDLE)) {
+            int pos = start + BUNDLE.length + 8;
+            while (pos < end) {
+                int size = in.getInt(pos);
+                pos += 4;
+                if (size < 0 || pos + size > end) {
+                    throw new IOException("bundle element overruns the packet");
+                }
+                writePacket(json, in, pos, pos + size);
+                pos += size;
+            }
+        } else {
+            writeMessage(json, in, start, end);
+        }
+    }
+
+    private void writeMessage(JsonGenerator json, ByteBuf in, int start, int end) throws IOException {
+        int addressEnd = stringEnd(in, start, end);
+        json.writeStartObject();
+        json.writeStringField("address", in.toString(start, addressEnd - start, StandardCharsets.UTF_8));
+        json.writeArrayFieldStart("args");
+
+        int tags = padded(start, addressEnd);
+        if (tags < end && in.getByte(tags) == ',') {
+            int tagsEnd = stringEnd(in, tags, end);
+            int pos = padded(tags, tagsEnd);
+            for (int t = tags + 1; t < tagsEnd; t++) {
+                pos = writeArgument(json, in, (char) in.getByte(t), pos, end);
+            }
+        }
+
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    /**
+     * Writes one argument and returns the position of the next.
+     */
+    private static int writeArgument(JsonGenerator json, ByteBuf in, char tag, int pos, int end) throws IOException {
+        switch (tag) {
+            case 'i':
+            case 'r':
+            case 'm':
+                json.writeNumber(in.getInt(pos));
+                return pos + 4;
+            case 'f':
+                json.writeNumber(in.getFloat(pos));
+                return pos + 4;
+            case 'h':
+            case 't':
+                json.writeNumber(in.getLong(pos));
+                return pos + 8;
+            case 'd':
+                json.writeNumber(in.getDouble(pos));
+                return pos + 8;
+            case 'c':
+                json.writeString(String.valueOf((char) in.getInt(pos)));
+                return pos + 4;
+            case 's':
+            case 'S': {
+                int stringEnd = stringEnd(in, pos, end);
+                json.writeString(in.toString(pos, stringEnd - pos, StandardCharsets.UTF_8));
+                return padded(pos, stringEnd);
+            }
+            case 'b': {
+                int size = in.getInt(pos);
+                if (size < 0 || pos + 4 + size > end) {
+                    throw new IOException("blob overruns the message");
+                }
+                byte[] blob = new byte[size];
+                in.getBytes(pos + 4, blob, 0, size);
+                json.writeBinary(blob);
+                return pos + 4 + ((size + 3) & ~3);
+            }
+            case 'T':
+            case 'I':
+                json.writeBoolean(true);
+                return pos;
+            case 'F':
+                json.writeBoolean(false);
+                return pos;
+            case 'N':
+                json.writeNull();
+                return pos;
+            default:
+                throw new IOException("unsupported OSC type tag '" + tag + "'");
+        }
+    }
+
+    private static int stringEnd(ByteBuf in, int start, int end) throws IOException {
+        int nul = in.indexOf(start, end, (byte) 0);
+        if (nul < 0) {
+            throw new IOException("unterminated OSC string");
+        }
+        return nul;
+    }
+
+    /**
+     * The position after a string's terminator and padding.
+     */
+    private static int padded(int start, int stringEnd) {
+        return start + ((stringEnd - start + 4) & ~3);
+    }
+
+    private static boolean startsWith(ByteBuf in, int start, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (in.getByte(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
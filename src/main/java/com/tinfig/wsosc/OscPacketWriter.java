@@ -0,0 +1,71 @@
+package com.tinfig.wsosc;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Turns encoded messages into datagrams for one target: sent one by one, or packed into
+ * MTU-sized bundles when the target asks for bundles.
+ */
+public class OscPacketWriter {
+    // Each bundle element is prefixed with its int32 size
+    private static final int ELEMENT_HEADER_SIZE = 4;
+
+    private final boolean bundle;
+    private final Consumer<ByteBuffer> output;
+    private final ByteBuffer packet;
+    private long timetag = OscEncoder.TIMETAG_IMMEDIATELY;
+
+    /**
+     * @param output receives each finished datagram, and must not change the buffer's position
+     */
+    public OscPacketWriter(boolean bundle, Consumer<ByteBuffer> output) {
+        this.bundle = bundle;
+        this.output = output;
+        this.packet = bundle ? ByteBuffer.allocateDirect(OscEncoder.MAX_DATAGRAM_SIZE) : null;
+    }
+
+    public void begin(long timetag) {
+        this.timetag = timetag;
+        if (bundle) {
+            packet.clear();
+        }
+    }
+
+    /**
+     * Adds one encoded message, taken from the buffer's position to its limit.  The buffer's
+     * position is left unchanged.
+     */
+    public void add(ByteBuffer message) {
+        if (!bundle) {
+            output.accept(message);
+            return;
+        }
+
+        int size = message.remaining();
+        if (packet.position() + ELEMENT_HEADER_SIZE + size > packet.capacity()) {
+            flush();
+        }
+        if (packet.position() == 0) {
+            OscEncoder.writeBundleHeader(packet, timetag);
+        }
+
+        int start = message.position();
+        packet.putInt(size).put(message);
+        message.position(start);
+    }
+
+    public void end() {
+        if (bundle) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (packet.position() > 0) {
+            packet.flip();
+            output.accept(packet);
+            packet.clear();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.tinfig.wsosc;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * One routing rule of an {@link OscTarget}: the addresses it wants, and optionally a new name
+ * and a scale for their values.
+ * <p>
+ * The pattern uses OSC address pattern syntax ({@code *}, {@code ?}, {@code [a-z]},
+ * {@code [!a]}, {@code {a,b}}) and is matched against the whole address as sent, so with
+ * {@link Config#allFaces} it needs a {@code /face/*} prefix.  A rename replaces the pattern's
+ * leading literal segments, so {@code /emotions/*} renamed to {@code /synth/mood} sends
+ * {@code /emotions/joy} as {@code /synth/mood/joy}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class OscRoute {
+    private static final String ARROW = "->";
+
+    public String pattern;
+    public String rename;
+    public float scale = 1;
+
+    public OscRoute() {
+    }
+
+    public OscRoute(String pattern, String rename, float scale) {
+        this.pattern = pattern;
+        this.rename = rename;
+        this.scale = scale;
+    }
+
+    /**
+     * Parses rules written as {@code pattern [-> rename] [*scale]}, separated by semicolons.
+     *
+     * @throws IllegalArgumentException if a rule is malformed
+     */
+    public static List<OscRoute> parseList(String text) {
+        List<OscRoute> routes = new ArrayList<>();
+        if (text == null) {
+            return routes;
+        }
+        for (String rule : text.split(";")) {
+            rule = rule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            float scale = 1;
+            int star = rule.lastIndexOf(" *");
+            if (star >= 0) {
+                try {
+                    scale = Float.parseFloat(rule.substring(star + 2).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad scale in route '" + rule + "'");
+                }
+                rule = rule.substring(0, star).trim();
+            }
+            String rename = null;
+            int arrow = rule.indexOf(ARROW);
+            if (arrow >= 0) {
+                rename = rule.substring(arrow + ARROW.length()).trim();
+                rule = rule.substring(0, arrow).trim();
+            }
+            OscRoute route = new OscRoute(rule, rename, scale);
+            route.validate();
+            routes.add(route);
+        }
+        return routes;
+    }
+
+    public static String formatList(List<OscRoute> routes) {
+        StringBuilder out = new StringBuilder();
+        if (routes != null) {
+            for (OscRoute route : routes) {
+                if (out.length() > 0) {
+                    out.append("; ");
+                }
+                out.append(route.pattern);
+                if (route.rename != null) {
+                    out.append(' ').append(ARROW).append(' ').append(route.rename);
+                }
+                if (route.scale != 1) {
+                    out.append(" *").append(route.scale);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern or rename isn't usable
+     */
+    public void validate() {
+        if (pattern == null || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("route pattern '" + pattern + "' must start with '/'");
+        }
+        if (rename != null && (!rename.startsWith("/") || !isLiteral(rename))) {
+            throw new IllegalArgumentException("route rename '" + rename + "' must be a plain OSC address");
+        }
+        if (Float.isNaN(scale) || Float.isInfinite(scale)) {
+            throw new IllegalArgumentException("route scale must be a finite number");
+        }
+        toRegex();
+    }
+
+    /**
+     * Translates the OSC pattern into an equivalent regular expression.
+     */
+    Pattern toRegex() {
+        StringBuilder regex = new StringBuilder();
+        boolean inBraces = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append("[^/]*");
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[': {
+                    int close = pattern.indexOf(']', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("unclosed '[' in route pattern '" + pattern + "'");
+                    }
+                    String set = pattern.substring(i + 1, close);
+                    regex.append('[');
+                    if (set.startsWith("!")) {
+                        regex.append('^');
+                        set = set.substring(1);
+                    }
+                    regex.append(set.replace("\\", "\\\\").replace("[", "\\[").replace("^", "\\^")).append(']');
+                    i = close;
+                    break;
+                }
+                case '{':
+                    if (inBraces) {
+                        throw new IllegalArgumentException("nested '{' in route pattern '" + pattern + "'");
+                    }
+                    inBraces = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (!inBraces) {
+                        throw new IllegalArgumentException("unmatched '}' in route pattern '" + pattern + "'");
+                    }
+                    inBraces = false;
+                    regex.append(')');
+                    break;
+                case ',':
+                    regex.append(inBraces ? "|" : ",");
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    break;
+            }
+        }
+        if (inBraces) {
+            throw new IllegalArgumentException("unclosed '{' in route pattern '" + pattern + "'");
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * The pattern's leading segments that contain no wildcards, which a rename replaces.
+     */
+    String literalPrefix() {
+        int end = 0;
+        int next;
+        while ((next = pattern.indexOf('/', end + 1)) >= 0 && isLiteral(pattern.substring(end, next))) {
+            end = next;
+        }
+        if (isLiteral(pattern.substring(end))) {
+            return pattern;
+        }
+        return pattern.substring(0, end);
+    }
+
+    private static boolean isLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[]{},".indexOf(s.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OscRoute route = (OscRoute) o;
+        return Float.compare(route.scale, scale) == 0 &&
+                Objects.equals(pattern, route.pattern) &&
+                Objects.equals(rename, route.rename);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, rename, scale);
+    }
+}
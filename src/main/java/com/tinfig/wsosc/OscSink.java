@@ -0,0 +1,20 @@
+package com.tinfig.wsosc;
+
+/**
+ * Receives the values of one frame at a time on their way to OSC.
+ * <p>
+ * Calls for a frame are bracketed by {@link #beginFrame(long)} and {@link #endFrame()}, and
+ * always come from a single thread at a time.
+ */
+public interface OscSink {
+    /**
+     * @param timetag the frame's 64-bit NTP timetag, see {@link OscEncoder#toTimetag(long)}
+     */
+    void beginFrame(long timetag);
+
+    void floatValue(OscAddress address, float value);
+
+    void stringValue(OscAddress address, String value);
+
+    void endFrame();
+}
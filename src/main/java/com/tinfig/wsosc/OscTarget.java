@@ -2,12 +2,45 @@ package com.tinfig.wsosc;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class OscTarget {
     public String address;
     public int port;
+    /**
+     * Send each frame as MTU-sized OSC bundles timetagged with the frame's timestamp
+     * instead of one datagram per value.
+     */
+    public boolean bundle;
+    /**
+     * What to do with packets for this target when its send queue is full.
+     */
+    public Overflow overflow = Overflow.DROP_OLDEST;
+    /**
+     * The addresses this target wants, or empty for all of them.
+     */
+    public List<OscRoute> routes = new ArrayList<>();
+    /**
+     * Whether the address is a single host, an IPv4 multicast group or a broadcast address, and
+     * whether to use TCP instead of UDP.
+     */
+    public Delivery delivery = Delivery.UNICAST;
+    /**
+     * How many router hops multicast datagrams may cross.  1 keeps them on the local network.
+     */
+    public int ttl = 1;
+    /**
+     * Name of the network interface multicast datagrams leave from, or null for the system's
+     * choice.
+     */
+    public String networkInterface;
+    /**
+     * Whether receivers on this host get the multicast datagrams too.
+     */
+    public boolean loopback = true;
 
     public OscTarget() {
     }
@@ -17,17 +50,81 @@ public class OscTarget {
         this.port = port;
     }
 
+    public OscTarget(String address, int port, boolean bundle) {
+        this(address, port);
+        this.bundle = bundle;
+    }
+
+    /**
+     * A deep copy, so a running egress isn't affected by later edits.
+     */
+    public OscTarget(OscTarget other) {
+        this(other.address, other.port, other.bundle);
+        this.overflow = other.overflow;
+        this.delivery = other.delivery;
+        this.ttl = other.ttl;
+        this.networkInterface = other.networkInterface;
+        this.loopback = other.loopback;
+        if (other.routes != null) {
+            for (OscRoute route : other.routes) {
+                routes.add(new OscRoute(route.pattern, route.rename, route.scale));
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         OscTarget oscTarget = (OscTarget) o;
         return port == oscTarget.port &&
-                Objects.equals(address, oscTarget.address);
+                bundle == oscTarget.bundle &&
+                overflow == oscTarget.overflow &&
+                delivery == oscTarget.delivery &&
+                ttl == oscTarget.ttl &&
+                loopback == oscTarget.loopback &&
+                Objects.equals(address, oscTarget.address) &&
+                Objects.equals(networkInterface, oscTarget.networkInterface) &&
+                Objects.equals(routes, oscTarget.routes);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(address, port);
+        return Objects.hash(address, port, bundle, overflow, routes, delivery, ttl, networkInterface, loopback);
+    }
+
+    public enum Delivery {
+        /**
+         * Send to one host.
+         */
+        UNICAST,
+        /**
+         * Send once to an IPv4 multicast group, reaching every receiver that joined it.
+         */
+        MULTICAST,
+        /**
+         * Send once to a subnet broadcast address, reaching every host on the subnet.
+         */
+        BROADCAST,
+        /**
+         * Send to one host as an OSC 1.1 SLIP-framed stream over TCP, so nothing is lost.
+         */
+        TCP
+    }
+
+    public enum Overflow {
+        /**
+         * Discard the oldest queued packet to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new packet.
+         */
+        DROP_NEWEST,
+        /**
+         * Merge frames into a latest-value table while the target is behind, and send only
+         * the newest value of each address once it catches up.
+         */
+        COALESCE
     }
 }
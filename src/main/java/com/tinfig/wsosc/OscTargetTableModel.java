@@ -6,8 +6,16 @@ import java.util.Arrays;
 import java.util.List;
 
 public class OscTargetTableModel extends AbstractTableModel {
-    private static final String[] COLUMN_NAMES = {"Address", "Port"};
+    private static final String[] COLUMN_NAMES = {"Address", "Port", "Bundle", "Overflow", "Routes", "Delivery", "TTL", "Interface", "Loopback"};
     private final List<OscTarget> data = new ArrayList<>();
+    private final Logger logger;
+
+    /**
+     * @param logger told why an edit was rejected
+     */
+    public OscTargetTableModel(Logger logger) {
+        this.logger = logger;
+    }
 
     public String getColumnName(int col) {
         return COLUMN_NAMES[col].toString();
@@ -24,6 +32,20 @@ public class OscTargetTableModel extends AbstractTableModel {
                 return String.class;
             case 1:
                 return Integer.class;
+            case 2:
+                return Boolean.class;
+            case 3:
+                return OscTarget.Overflow.class;
+            case 4:
+                return String.class;
+            case 5:
+                return OscTarget.Delivery.class;
+            case 6:
+                return Integer.class;
+            case 7:
+                return String.class;
+            case 8:
+                return Boolean.class;
             default:
                 throw new IllegalStateException();
         }
@@ -40,6 +62,20 @@ public class OscTargetTableModel extends AbstractTableModel {
                 return target.address;
             case 1:
                 return target.port;
+            case 2:
+                return target.bundle;
+            case 3:
+                return target.overflow;
+            case 4:
+                return OscRoute.formatList(target.routes);
+            case 5:
+                return target.delivery;
+            case 6:
+                return target.ttl;
+            case 7:
+                return target.networkInterface;
+            case 8:
+                return target.loopback;
             default:
                 throw new IllegalStateException();
         }
@@ -58,6 +94,34 @@ public class OscTargetTableModel extends AbstractTableModel {
             case 1:
                 target.port = (Integer) value;
                 break;
+            case 2:
+                target.bundle = (Boolean) value;
+                break;
+            case 3:
+                target.overflow = (OscTarget.Overflow) value;
+                break;
+            case 4:
+                try {
+                    target.routes = OscRoute.parseList((String) value);
+                } catch (IllegalArgumentException e) {
+                    // Keep the old routes
+                    logger.log("Invalid routes for " + target.address + ":" + target.port + ": " + e.getMessage());
+                    return;
+                }
+                break;
+            case 5:
+                target.delivery = (OscTarget.Delivery) value;
+                break;
+            case 6:
+                target.ttl = (Integer) value;
+                break;
+            case 7:
+                String name = ((String) value).trim();
+                target.networkInterface = name.isEmpty() ? null : name;
+                break;
+            case 8:
+                target.loopback = (Boolean) value;
+                break;
             default:
                 throw new IllegalStateException();
         }
@@ -0,0 +1,138 @@
+package com.tinfig.wsosc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link OscRoute}s of every target, compiled into one entry per address: a bitmask of the
+ * targets that want it and, per target, the address and scale to send it with.
+ * <p>
+ * Patterns are matched once, the first time an address is seen; after that routing a value is
+ * an array lookup.  A target without routes gets every address unchanged.
+ */
+public class RoutingTable {
+    /**
+     * Sessions keep one bit per target in a long.
+     */
+    public static final int MAX_TARGETS = 64;
+
+    private final OscAddressSpace addressSpace;
+    private final CompiledRoute[][] routes;
+    private volatile Entry[] entries = new Entry[256];
+
+    /**
+     * @throws IllegalArgumentException if a route is invalid or there are too many targets
+     */
+    public RoutingTable(List<OscTarget> targets, OscAddressSpace addressSpace) {
+        if (targets.size() > MAX_TARGETS) {
+            throw new IllegalArgumentException("at most " + MAX_TARGETS + " OSC targets are supported");
+        }
+        this.addressSpace = addressSpace;
+        this.routes = new CompiledRoute[targets.size()][];
+        for (int i = 0; i < routes.length; i++) {
+            routes[i] = compile(targets.get(i).routes);
+        }
+    }
+
+    /**
+     * Compiles one target's routes, or returns null if it has none and wants everything.
+     *
+     * @throws IllegalArgumentException if a route is invalid
+     */
+    static CompiledRoute[] compile(List<OscRoute> routes) {
+        if (routes == null || routes.isEmpty()) {
+            return null;
+        }
+        List<CompiledRoute> compiled = new ArrayList<>();
+        for (OscRoute route : routes) {
+            route.validate();
+            compiled.add(new CompiledRoute(route));
+        }
+        return compiled.toArray(new CompiledRoute[0]);
+    }
+
+    public Entry get(OscAddress address) {
+        Entry[] entries = this.entries;
+        Entry entry;
+        if (address.id < entries.length && (entry = entries[address.id]) != null) {
+            return entry;
+        }
+        return build(address);
+    }
+
+    private synchronized Entry build(OscAddress address) {
+        Entry[] entries = this.entries;
+        if (address.id >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(entries.length * 2, address.id + 1));
+        } else if (entries[address.id] != null) {
+            return entries[address.id];
+        }
+
+        long mask = 0;
+        OscAddress[] addresses = new OscAddress[routes.length];
+        float[] scales = new float[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i] == null) {
+                mask |= 1L << i;
+                addresses[i] = address;
+                scales[i] = 1;
+                continue;
+            }
+            for (CompiledRoute route : routes[i]) {
+                if (route.regex.matcher(address.path).matches()) {
+                    mask |= 1L << i;
+                    addresses[i] = route.rename != null
+                            ? addressSpace.resolve(route.rename + address.path.substring(route.prefix.length()), false)
+                            : address;
+                    scales[i] = route.scale;
+                    break;
+                }
+            }
+        }
+
+        Entry entry = new Entry(mask, addresses, scales);
+        entries[address.id] = entry;
+        this.entries = entries;
+        return entry;
+    }
+
+    /**
+     * Where one address goes.  Immutable once built.
+     */
+    public static class Entry {
+        /**
+         * Bit i is set if target i wants this address.
+         */
+        public final long mask;
+        /**
+         * The address to send to each target in the mask, after renaming.
+         */
+        final OscAddress[] addresses;
+        /**
+         * What to multiply float values by for each target in the mask.
+         */
+        final float[] scales;
+
+        Entry(long mask, OscAddress[] addresses, float[] scales) {
+            this.mask = mask;
+            this.addresses = addresses;
+            this.scales = scales;
+        }
+    }
+
+    static class CompiledRoute {
+        final Pattern regex;
+        final String prefix;
+        final String rename;
+        final float scale;
+
+        CompiledRoute(OscRoute route) {
+            this.regex = route.toRegex();
+            this.prefix = route.literalPrefix();
+            this.rename = route.rename;
+            this.scale = route.scale;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Subscribes a WebSocket client to incoming OSC once its handshake completes.  Anything the
+ * client sends is ignored.
+ */
+public class SubscriberHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(SubscriberHandler.class);
+
+    // Past this much unsent data a subscriber misses frames until it catches up
+    private static final WriteBufferWaterMark WATER_MARK = new WriteBufferWaterMark(32 * 1024, 64 * 1024);
+
+    private final OscBroadcaster broadcaster;
+    private final Metrics metrics;
+    private boolean subscribed;
+
+    public SubscriberHandler(OscBroadcaster broadcaster, Metrics metrics) {
+        this.broadcaster = broadcaster;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        ctx.channel().config().setWriteBufferWaterMark(WATER_MARK);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            LOG.info("[{}] subscribed", ctx.channel().remoteAddress());
+            subscribed = true;
+            metrics.subscribersActive.increment();
+            broadcaster.subscribe(ctx.channel());
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (subscribed) {
+            LOG.info("[{}] unsubscribed", ctx.channel().remoteAddress());
+            metrics.subscribersActive.decrement();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) {
+    }
+}
@@ -0,0 +1,351 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.EventLoopGroup;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends datagrams to one OSC target from its own thread.
+ * <p>
+ * Connections enqueue packets on a bounded {@link DatagramRing} and return immediately, so a
+ * slow or unreachable target only ever backs up its own queue.  What happens when the queue is
+ * full depends on the target's {@link OscTarget.Overflow} policy.
+ * <p>
+ * A multicast or broadcast target is still one sender: each datagram is sent once and the
+ * network delivers it to every listener.
+ * <p>
+ * A {@link OscTarget.Delivery#TCP} target sends through a {@link TcpLink} instead: everything
+ * drained from the queue in one go is written and flushed together, and the queue is left
+ * alone while the link is down or backed up, so its overflow policy takes over.  Only a link
+ * that is up but backed up counts towards the ingress backpressure; one that is down must not
+ * hold up every other target.
+ */
+public class TargetSender {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(TargetSender.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    public final OscTarget target;
+    public final InetSocketAddress address;
+
+    private final DatagramRing ring;
+    private final LatestValueTable coalesced;
+    private final OscSink coalescedSink;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Histogram queueDelay = new Histogram();
+
+    private volatile boolean running;
+    private volatile boolean sleeping;
+    private volatile Thread thread;
+    private DatagramChannel channel;
+    private volatile TcpLink link;
+    private boolean failing;
+
+    private final EventLoopGroup eventLoops;
+
+    /**
+     * @param eventLoops where TCP connections run, or null if the target isn't TCP
+     */
+    public TargetSender(OscTarget target, InetSocketAddress address, OscAddressSpace addressSpace, int queueSize, EventLoopGroup eventLoops) {
+        this.target = target;
+        this.address = address;
+        this.eventLoops = eventLoops;
+        this.ring = new DatagramRing(queueSize, OscEncoder.MAX_DATAGRAM_SIZE);
+        if (target.overflow == OscTarget.Overflow.COALESCE) {
+            coalesced = new LatestValueTable(addressSpace);
+            coalescedSink = new DirectSink(new OscPacketWriter(target.bundle, this::transmit));
+        } else {
+            coalesced = null;
+            coalescedSink = null;
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (target.delivery == OscTarget.Delivery.TCP) {
+            link = new TcpLink(eventLoops, address, this::wake, errors);
+            link.connect();
+        } else {
+            channel = openChannel();
+        }
+        running = true;
+        thread = new Thread(this::run, "TargetSender " + target.address + ":" + target.port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private DatagramChannel openChannel() throws IOException {
+        if (target.delivery != OscTarget.Delivery.MULTICAST && target.delivery != OscTarget.Delivery.BROADCAST) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.connect(address);
+            return channel;
+        }
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            if (target.delivery == OscTarget.Delivery.BROADCAST) {
+                channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            } else {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, target.ttl);
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, target.loopback);
+                if (target.networkInterface != null && !target.networkInterface.isEmpty()) {
+                    NetworkInterface networkInterface = NetworkInterface.getByName(target.networkInterface);
+                    if (networkInterface == null) {
+                        throw new IOException("unknown network interface " + target.networkInterface);
+                    }
+                    channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+                }
+            }
+            channel.connect(address);
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOG.warn("OSC sender for {} is slow to stop, it will close its connection when it does", address);
+        }
+        thread = null;
+    }
+
+    /**
+     * Queues a datagram, applying the overflow policy if the queue is full.  The buffer's
+     * position is left unchanged.
+     */
+    public void send(ByteBuffer packet) {
+        if (!running) {
+            return;
+        }
+        while (!ring.offer(packet)) {
+            if (target.overflow != OscTarget.Overflow.DROP_OLDEST || packet.remaining() > OscEncoder.MAX_DATAGRAM_SIZE) {
+                dropped.increment();
+                return;
+            }
+            long pos = ring.claim();
+            if (pos >= 0) {
+                ring.release(pos);
+                dropped.increment();
+            }
+        }
+        wake();
+    }
+
+    /**
+     * Whether frames for this target should go to its latest-value table instead of the queue,
+     * because it uses {@link OscTarget.Overflow#COALESCE} and has fallen behind.
+     */
+    public boolean isBacklogged() {
+        return coalesced != null && (ring.size() > ring.capacity() / 2 || coalesced.isDirty());
+    }
+
+    /**
+     * The latest-value table backlogged frames are merged into, or null unless the target uses
+     * {@link OscTarget.Overflow#COALESCE}.
+     */
+    public LatestValueTable getCoalesced() {
+        return coalesced;
+    }
+
+    public void wake() {
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Whether this is a TCP target whose connection is down, so its queue only holds packets
+     * waiting for a reconnect rather than showing that the target is falling behind.
+     */
+    public boolean isDisconnected() {
+        TcpLink link = this.link;
+        return link != null && !link.isConnected();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Whether the sender has nothing queued or in hand, so stopping it now loses nothing.  Only
+     * meaningful once nothing else is being sent.
+     */
+    public boolean isDrained() {
+        return sleeping && ring.size() == 0 && (coalesced == null || !coalesced.isDirty());
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public int getQueued() {
+        return ring.size();
+    }
+
+    public int getQueueCapacity() {
+        return ring.capacity();
+    }
+
+    /**
+     * How long packets wait in the queue before being sent.
+     */
+    public Histogram getQueueDelay() {
+        return queueDelay;
+    }
+
+    private void run() {
+        // Closed by this thread on its way out, since stop() may give up waiting while a packet
+        // is still in hand
+        TcpLink link = this.link;
+        DatagramChannel channel = this.channel;
+        try {
+            sendQueued(link);
+        } finally {
+            if (link != null) {
+                link.close();
+            } else {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.warn("error closing OSC channel to {}", address, e);
+                }
+            }
+        }
+    }
+
+    private void sendQueued(TcpLink link) {
+        // A restart after a slow stop has a thread of its own
+        while (running && thread == Thread.currentThread()) {
+            boolean idle = true;
+
+            // Leave packets queued until a TCP target can take them
+            boolean writable = link == null || link.isWritable();
+
+            long pos;
+            while (writable && (pos = ring.claim()) >= 0) {
+                queueDelay.recordNanos(System.nanoTime() - ring.enqueuedNanos(pos));
+                transmit(ring.slot(pos));
+                ring.release(pos);
+                idle = false;
+            }
+
+            // Anything merged while the queue was backed up is newer than what was queued
+            if (writable && coalesced != null && coalesced.flush(coalescedSink) > 0) {
+                idle = false;
+            }
+
+            if (link != null && !idle) {
+                link.flush();
+            }
+
+            if (idle) {
+                sleeping = true;
+                if (running && (!writable || ring.size() == 0 && (coalesced == null || !coalesced.isDirty()))) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    private void transmit(ByteBuffer packet) {
+        if (link != null) {
+            if (link.write(packet)) {
+                sent.increment();
+            } else {
+                dropped.increment();
+            }
+            return;
+        }
+        int start = packet.position();
+        try {
+            channel.write(packet);
+            sent.increment();
+            if (failing) {
+                LOG.info("sending OSC to {} recovered", address);
+                failing = false;
+            }
+        } catch (IOException e) {
+            errors.increment();
+            // Log once per outage rather than once per packet
+            if (!failing) {
+                LOG.warn("error sending OSC to {}", address, e);
+                failing = true;
+            }
+        } finally {
+            packet.position(start);
+        }
+    }
+
+    /**
+     * Encodes values on the sender's own thread for flushing the latest-value table.
+     */
+    private static class DirectSink implements OscSink {
+        private final ByteBuffer message = ByteBuffer.allocateDirect(OscEncoder.MAX_DATAGRAM_SIZE - OscEncoder.BUNDLE_HEADER_SIZE - 4);
+        private final OscPacketWriter writer;
+
+        DirectSink(OscPacketWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void beginFrame(long timetag) {
+            writer.begin(timetag);
+        }
+
+        @Override
+        public void floatValue(OscAddress address, float value) {
+            message.clear();
+            if (OscEncoder.writeFloat(message, address, value)) {
+                message.flip();
+                writer.add(message);
+            }
+        }
+
+        @Override
+        public void stringValue(OscAddress address, String value) {
+            message.clear();
+            if (OscEncoder.writeString(message, address, value)) {
+                message.flip();
+                writer.add(message);
+            }
+        }
+
+        @Override
+        public void endFrame() {
+            writer.end();
+        }
+    }
+}
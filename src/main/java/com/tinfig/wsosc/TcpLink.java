@@ -0,0 +1,232 @@
+package com.tinfig.wsosc;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An OSC 1.1 stream to one target: packets SLIP-framed over a TCP connection on the bridge's
+ * event loop, for receivers that can't afford to lose values.
+ * <p>
+ * {@link #write} only appends to a pending buffer; {@link #flush} hands everything written
+ * since to Netty in one write and flush, so a whole frame costs one syscall.  The connection is
+ * made again with exponential backoff whenever it fails or drops.  While it is down or Netty's
+ * outbound buffer is above its high watermark, {@link #isWritable} is false, and the owning
+ * {@link TargetSender} leaves packets in its queue.
+ * <p>
+ * Writing and flushing are for the sender's thread only.
+ */
+public class TcpLink {
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(TcpLink.class);
+
+    // SLIP framing, RFC 1055
+    static final byte END = (byte) 0xc0;
+    static final byte ESC = (byte) 0xdb;
+    static final byte ESC_END = (byte) 0xdc;
+    static final byte ESC_ESC = (byte) 0xdd;
+
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int LOW_WATER_MARK = 64 * 1024;
+    private static final int HIGH_WATER_MARK = 256 * 1024;
+    // Flushed early once this much is pending, so a long backlog doesn't build one huge buffer
+    private static final int MAX_PENDING_BYTES = LOW_WATER_MARK;
+
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    private final InetSocketAddress address;
+    private final Runnable onWritable;
+    private final LongAdder errors;
+
+    private volatile Channel channel;
+    private volatile boolean closed;
+    // Only touched on the event loop
+    private long backoffMillis = MIN_BACKOFF_MILLIS;
+    private boolean failing;
+    // Only touched by the sender's thread
+    private ByteBuf pending;
+
+    /**
+     * @param onWritable called on the event loop whenever the link can take writes again
+     * @param errors counts failed connects and writes
+     */
+    public TcpLink(EventLoopGroup group, InetSocketAddress address, Runnable onWritable, LongAdder errors) {
+        this.group = group;
+        this.address = address;
+        this.onWritable = onWritable;
+        this.errors = errors;
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(LOW_WATER_MARK, HIGH_WATER_MARK))
+                .remoteAddress(address)
+                .handler(new Handler());
+    }
+
+    public void connect() {
+        if (closed || group.isShuttingDown()) {
+            return;
+        }
+        bootstrap.connect().addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                errors.increment();
+                if (!failing) {
+                    LOG.warn("can't connect to OSC target {}: {}", address, future.cause().getMessage());
+                    failing = true;
+                }
+                reconnectLater();
+                return;
+            }
+            if (closed) {
+                future.channel().close();
+                return;
+            }
+            LOG.info("connected to OSC target {}", address);
+            failing = false;
+            backoffMillis = MIN_BACKOFF_MILLIS;
+            channel = future.channel();
+            onWritable.run();
+        });
+    }
+
+    private void reconnectLater() {
+        if (closed || group.isShuttingDown()) {
+            return;
+        }
+        group.schedule(this::connect, backoffMillis, TimeUnit.MILLISECONDS);
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Whether the connection is up, backed up or not.
+     */
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    /**
+     * Whether the connection is up and Netty is keeping up with what's been flushed.
+     */
+    public boolean isWritable() {
+        Channel channel = this.channel;
+        return channel != null && channel.isWritable();
+    }
+
+    /**
+     * Appends one SLIP-framed packet to the pending write.  The buffer's position is left
+     * unchanged.
+     *
+     * @return false if the packet was dropped because the connection is down
+     */
+    public boolean write(ByteBuffer packet) {
+        Channel channel = this.channel;
+        if (channel == null) {
+            return false;
+        }
+        if (pending == null) {
+            pending = channel.alloc().directBuffer(OscEncoder.MAX_DATAGRAM_SIZE);
+        }
+        pending.writeByte(END);
+        for (int i = packet.position(); i < packet.limit(); i++) {
+            byte b = packet.get(i);
+            if (b == END) {
+                pending.writeByte(ESC).writeByte(ESC_END);
+            } else if (b == ESC) {
+                pending.writeByte(ESC).writeByte(ESC_ESC);
+            } else {
+                pending.writeByte(b);
+            }
+        }
+        pending.writeByte(END);
+        if (pending.readableBytes() >= MAX_PENDING_BYTES) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Sends everything written since the last flush in one write.
+     */
+    public void flush() {
+        ByteBuf buf = pending;
+        if (buf == null) {
+            return;
+        }
+        pending = null;
+        Channel channel = this.channel;
+        if (channel == null) {
+            buf.release();
+            return;
+        }
+        channel.writeAndFlush(buf).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                errors.increment();
+            }
+        });
+    }
+
+    /**
+     * Closes the connection for good.  Call once the sender's thread has stopped.
+     */
+    public void close() {
+        closed = true;
+        if (pending != null) {
+            pending.release();
+            pending = null;
+        }
+        Channel channel = this.channel;
+        this.channel = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private class Handler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            // Nothing is expected back
+            ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                onWritable.run();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (channel == ctx.channel()) {
+                channel = null;
+            }
+            if (!closed) {
+                LOG.warn("lost connection to OSC target {}, reconnecting", address);
+                reconnectLater();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOG.debug("error on connection to OSC target {}", address, cause);
+            ctx.close();
+        }
+    }
+}
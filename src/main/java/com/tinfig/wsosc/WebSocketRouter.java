@@ -0,0 +1,59 @@
+package com.tinfig.wsosc;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Sends a WebSocket upgrade for the subscribe path to a subscriber instead of the face
+ * handlers the pipeline starts with, and one for an endpoint's path to that endpoint's face
+ * handlers, by swapping the handlers after this one before passing the request on.
+ */
+public class WebSocketRouter extends ChannelInboundHandlerAdapter {
+    private final String subscribePath;
+    private final Supplier<ChannelHandler> subscriber;
+    private final Map<String, BridgeEndpoint> endpoints;
+
+    /**
+     * @param endpoints the endpoints by path
+     */
+    public WebSocketRouter(String subscribePath, Supplier<ChannelHandler> subscriber, Map<String, BridgeEndpoint> endpoints) {
+        this.subscribePath = subscribePath;
+        this.subscriber = subscriber;
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullHttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        String path = new QueryStringDecoder(((FullHttpRequest) msg).uri()).path();
+        BridgeEndpoint endpoint = endpoints.get(path);
+        if (endpoint != null) {
+            ctx.pipeline().replace(WebSocketServerProtocolHandler.class, null, new WebSocketServerProtocolHandler(path));
+            // A replay couldn't tell which endpoint the frames were for
+            if (ctx.pipeline().get(JournalRecorder.class) != null) {
+                ctx.pipeline().remove(JournalRecorder.class);
+            }
+            endpoint.install(ctx.pipeline());
+            ctx.pipeline().remove(this);
+        } else if (path.equals(subscribePath)) {
+            ctx.pipeline().replace(WebSocketServerProtocolHandler.class, null, new WebSocketServerProtocolHandler(subscribePath));
+            if (ctx.pipeline().get(JournalRecorder.class) != null) {
+                ctx.pipeline().remove(JournalRecorder.class);
+            }
+            ctx.pipeline().remove(IngressGuard.class);
+            ctx.pipeline().replace(FaceMessageHandler.class, null, subscriber.get());
+            ctx.pipeline().remove(this);
+        }
+        ctx.fireChannelRead(msg);
+    }
+}